@@ -92,15 +92,13 @@ public class SampleActivity extends AppCompatActivity {
     private void useHud() {
         HudManager.add(this, new Hud() {
 
-            private final RemoteViews remoteView =
-                    new RemoteViews(getPackageName(), R.layout.remote_layout);
-
             private int rotation = 0;
 
             @Override
             public RemoteViews getUpdate() {
                 updateTextIfNeeded();
 
+                RemoteViews remoteView = new RemoteViews(getPackageName(), R.layout.remote_layout);
                 remoteView.setCharSequence(R.id.text, "setText", proverbs[proverbIndex]);
                 remoteView.setInt(R.id.icon, "setImageLevel", rotation);
 
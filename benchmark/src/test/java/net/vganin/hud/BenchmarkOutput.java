@@ -0,0 +1,33 @@
+package net.vganin.hud;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Files benchmark results are written to, under {@code build/benchmark} of the module.
+ */
+final class BenchmarkOutput {
+
+    private static final File DIRECTORY = new File("build", "benchmark");
+
+    private BenchmarkOutput() {
+    }
+
+    static File file(String name) {
+        if (!DIRECTORY.isDirectory() && !DIRECTORY.mkdirs()) {
+            throw new IllegalStateException("Cannot create " + DIRECTORY);
+        }
+        return new File(DIRECTORY, name);
+    }
+
+    static void write(String name, String json) throws IOException {
+        Writer writer = new FileWriter(file(name));
+        try {
+            writer.write(json);
+        } finally {
+            writer.close();
+        }
+    }
+}
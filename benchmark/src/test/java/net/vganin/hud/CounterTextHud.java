@@ -0,0 +1,27 @@
+package net.vganin.hud;
+
+import android.content.Context;
+
+/**
+ * Text which differs on each update.
+ */
+class CounterTextHud extends DebugTextHud {
+
+    private final boolean canvasRendered;
+    private int counter;
+
+    CounterTextHud(Context ctx, boolean canvasRendered) {
+        super(ctx);
+        this.canvasRendered = canvasRendered;
+    }
+
+    @Override
+    public CharSequence getMessageUpdate() {
+        return "Counter: " + counter++;
+    }
+
+    @Override
+    public boolean isCanvasRendered() {
+        return canvasRendered;
+    }
+}
@@ -0,0 +1,40 @@
+package net.vganin.hud;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording a value to {@link HudHistogram}, which every HUD update does several times.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HistogramBenchmark {
+
+    private final HudHistogram histogram = new HudHistogram();
+
+    private long value = 0;
+
+    @Benchmark
+    public void record() {
+        histogram.record(value++ & 0xffff);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordContended() {
+        histogram.record(System.nanoTime() & 0xffff);
+    }
+
+    @Benchmark
+    public long percentile() {
+        return histogram.getPercentile(0.99);
+    }
+}
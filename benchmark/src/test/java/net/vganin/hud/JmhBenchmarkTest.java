@@ -0,0 +1,51 @@
+package net.vganin.hud;
+
+import net.vganin.hud.benchmark.BuildConfig;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Runs JMH benchmarks of client parts. Results are written to {@code build/benchmark/jmh.json}.
+ * <p>
+ * Benchmarks run in the test JVM, as forked one would not have Robolectric runtime, which gives
+ * them working {@link android.os.Parcel} and {@link android.os.Bundle}.
+ * They take minutes, so they are skipped unless {@value #ENABLED_PROPERTY} system property is
+ * {@code true}.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class JmhBenchmarkTest {
+
+    private static final String ENABLED_PROPERTY = "benchmark.jmh";
+
+    @Test
+    public void runBenchmarks() throws RunnerException {
+        Assume.assumeTrue(Boolean.getBoolean(ENABLED_PROPERTY));
+
+        File result = BenchmarkOutput.file("jmh.json");
+
+        Options options = new OptionsBuilder()
+                .include(JmhBenchmarkTest.class.getPackage().getName() + "\\..*Benchmark\\.")
+                .forks(0)
+                .warmupIterations(5)
+                .measurementIterations(10)
+                .resultFormat(ResultFormatType.JSON)
+                .result(result.getPath())
+                .build();
+
+        assertFalse(new Runner(options).run().isEmpty());
+    }
+}
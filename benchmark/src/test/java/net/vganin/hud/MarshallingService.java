@@ -0,0 +1,40 @@
+package net.vganin.hud;
+
+import android.os.Binder;
+import android.os.IInterface;
+import android.os.Parcel;
+
+/**
+ * Binder of remote {@link IHudService}, which records transactions it gets instead of handling
+ * them. Calls made through it are marshalled the way they are on device.
+ */
+class MarshallingService extends Binder {
+
+    /**
+     * Number of transactions got so far.
+     */
+    volatile int transactionCount;
+
+    /**
+     * Size of the last transaction in bytes.
+     */
+    volatile int lastTransactionSize;
+
+    @Override
+    public String getInterfaceDescriptor() {
+        return IHudService.class.getName();
+    }
+
+    @Override
+    public IInterface queryLocalInterface(String descriptor) {
+        // Makes stub marshal calls as if service was in another process
+        return null;
+    }
+
+    @Override
+    protected boolean onTransact(int code, Parcel data, Parcel reply, int flags) {
+        lastTransactionSize = data.dataSize();
+        transactionCount++;
+        return true;
+    }
+}
@@ -0,0 +1,143 @@
+package net.vganin.hud;
+
+import android.content.Context;
+import android.os.IBinder;
+
+import net.vganin.hud.benchmark.BuildConfig;
+import net.vganin.hud.benchmark.R;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.internal.ShadowExtractor;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures client side of HUD updates: making updates of all HUDs and putting them to batch, then
+ * building the batch and marshalling it to the service. Results by HUD count and HUD kind are
+ * written to {@code build/benchmark/messenger.json}. Times are in microseconds, sizes are in
+ * bytes.
+ * <p>
+ * Absolute numbers reflect Robolectric rather than device, so results are meant for comparing
+ * runs of the same machine.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class MessengerBenchmarkTest {
+
+    private static final int[] HUD_COUNTS = {1, 10, 100};
+
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int ROUNDS = 100;
+
+    private static final HudMessenger.Listener LISTENER = new HudMessenger.Listener() {
+        @Override
+        public void onVisibilityChanged(boolean visible) {
+        }
+
+        @Override
+        public void onResyncRequired(IBinder token) {
+        }
+    };
+
+    @Test
+    public void runBenchmarks() throws IOException {
+        Context context = RuntimeEnvironment.application;
+        StringBuilder json = new StringBuilder("[");
+
+        for (int hudCount : HUD_COUNTS) {
+            if (hudCount != HUD_COUNTS[0]) {
+                json.append(',');
+            }
+            json.append("{\"hudCount\":").append(hudCount).append(',');
+
+            List<Hud> texts = new ArrayList<>(hudCount);
+            List<Hud> slots = new ArrayList<>(hudCount);
+            for (int i = 0; i < hudCount; i++) {
+                texts.add(new CounterTextHud(context, true));
+                slots.add(new CounterSlotHud(context));
+            }
+
+            json.append("\"text\":");
+            benchmarkMessenger(texts, json);
+            json.append(",\"slots\":");
+            benchmarkMessenger(slots, json);
+            json.append('}');
+        }
+
+        BenchmarkOutput.write("messenger.json", json.append(']').toString());
+    }
+
+    /**
+     * Updates all HUDs per round, as {@link HudManager} does, and times making the updates and
+     * sending the batch they are gathered to separately.
+     */
+    private static void benchmarkMessenger(List<Hud> huds, StringBuilder json) {
+        MarshallingService service = new MarshallingService();
+        HudMessenger messenger = new HudMessenger(service, 0, 0, LISTENER);
+        ShadowLooper sender =
+                (ShadowLooper) ShadowExtractor.extract(HudMessenger.getSenderLooper());
+
+        HudHistogram updateTime = new HudHistogram();
+        HudHistogram sendTime = new HudHistogram();
+        HudHistogram transactionSize = new HudHistogram();
+
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            long startTime = System.nanoTime();
+            for (Hud hud : huds) {
+                messenger.update(hud);
+            }
+            long updatedTime = System.nanoTime();
+            sender.runToEndOfTasks();
+            long sentTime = System.nanoTime();
+
+            if (round >= WARMUP_ROUNDS) {
+                updateTime.record((updatedTime - startTime) / 1000);
+                sendTime.record((sentTime - updatedTime) / 1000);
+                transactionSize.record(service.lastTransactionSize);
+            }
+        }
+
+        // Each round goes in one transaction
+        assertEquals(WARMUP_ROUNDS + ROUNDS, service.transactionCount);
+
+        json.append('{');
+        appendJson(json, "updateTime", updateTime).append(',');
+        appendJson(json, "sendTime", sendTime).append(',');
+        appendJson(json, "transactionSize", transactionSize);
+        json.append('}');
+    }
+
+    private static StringBuilder appendJson(StringBuilder json, String name,
+            HudHistogram histogram) {
+        json.append('"').append(name).append("\":");
+        histogram.appendJson(json);
+        return json;
+    }
+
+    /**
+     * Label and value slots, of which value differs on each update.
+     */
+    private static class CounterSlotHud extends SlotHud {
+
+        private int counter;
+
+        CounterSlotHud(Context ctx) {
+            super(ctx, R.layout.benchmark_hud);
+        }
+
+        @Override
+        public void onUpdate(Slots slots) {
+            slots.setText(R.id.benchmark_label, "Counter");
+            slots.setInt(R.id.benchmark_value, counter++);
+        }
+    }
+}
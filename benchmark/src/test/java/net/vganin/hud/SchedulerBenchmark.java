@@ -0,0 +1,100 @@
+package net.vganin.hud;
+
+import android.widget.RemoteViews;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rescheduling all HUDs, as happens when overlay gets visible again, on the timer wheel and on
+ * scheduled executor HUDs used to be updated by. Period is long enough for nothing to get due.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SchedulerBenchmark {
+
+    private static final long PERIOD = 60000;
+    private static final long TOLERANCE = 50;
+
+    private static final Runnable NO_OP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    @Param({"1", "10", "100", "1000"})
+    public int hudCount;
+
+    private Hud[] huds;
+    private HudScheduler scheduler;
+
+    private ScheduledThreadPoolExecutor executor;
+    private ScheduledFuture<?>[] futures;
+
+    @Setup
+    public void setUp() {
+        huds = new Hud[hudCount];
+        for (int i = 0; i < hudCount; i++) {
+            huds[i] = new BenchmarkHud();
+        }
+
+        scheduler = new HudScheduler(new HudScheduler.Callback() {
+            @Override
+            public void onDue(Hud hud) {
+            }
+        });
+
+        executor = new ScheduledThreadPoolExecutor(1);
+        // Otherwise cancelled tasks pile up in the queue until they get due
+        executor.setRemoveOnCancelPolicy(true);
+        futures = new ScheduledFuture<?>[hudCount];
+        for (int i = 0; i < hudCount; i++) {
+            futures[i] = executor.scheduleWithFixedDelay(NO_OP, PERIOD, PERIOD,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (Hud hud : huds) {
+            scheduler.cancel(hud);
+        }
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void timerWheel() {
+        for (Hud hud : huds) {
+            scheduler.schedule(hud, PERIOD, PERIOD, Hud.PRIORITY_NORMAL, TOLERANCE);
+        }
+    }
+
+    @Benchmark
+    public void scheduledExecutor() {
+        for (int i = 0; i < hudCount; i++) {
+            futures[i].cancel(false);
+            futures[i] = executor.scheduleWithFixedDelay(NO_OP, PERIOD, PERIOD,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    static class BenchmarkHud extends Hud {
+
+        @Override
+        public RemoteViews getUpdate() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package net.vganin.hud;
+
+import android.content.Context;
+import android.os.IBinder;
+import android.os.Looper;
+
+import net.vganin.hud.benchmark.BuildConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.internal.ShadowExtractor;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.Scheduler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Counts tasks HUD traffic leaves to host app main thread, when messages to the service are sent
+ * from main thread as they used to be, and from sender thread. HUDs are updated at fixed rate for
+ * a second. Results by HUD count are written to {@code build/benchmark/sender.json}.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class SenderBenchmarkTest {
+
+    private static final int[] HUD_COUNTS = {1, 10, 100};
+
+    private static final int UPDATE_INTERVAL = 50;
+    private static final int ROUNDS = 1000 / UPDATE_INTERVAL;
+
+    /**
+     * Default batch window of {@link HudManager}.
+     */
+    private static final int BATCH_WINDOW = 10;
+
+    private static final HudMessenger.Listener LISTENER = new HudMessenger.Listener() {
+        @Override
+        public void onVisibilityChanged(boolean visible) {
+        }
+
+        @Override
+        public void onResyncRequired(IBinder token) {
+        }
+    };
+
+    @Before
+    public void setUp() {
+        ShadowLooper.pauseMainLooper();
+    }
+
+    @After
+    public void tearDown() {
+        ShadowLooper.unPauseMainLooper();
+    }
+
+    @Test
+    public void runBenchmarks() throws IOException {
+        StringBuilder json = new StringBuilder("[");
+
+        for (int hudCount : HUD_COUNTS) {
+            if (hudCount != HUD_COUNTS[0]) {
+                json.append(',');
+            }
+            json.append("{\"hudCount\":").append(hudCount).append(',');
+
+            json.append("\"mainThreadSender\":");
+            benchmarkSender(hudCount, Looper.getMainLooper(), json);
+            json.append(",\"senderThread\":");
+            int mainThreadTasks = benchmarkSender(hudCount, HudMessenger.getSenderLooper(), json);
+            json.append('}');
+
+            assertEquals(0, mainThreadTasks);
+        }
+
+        BenchmarkOutput.write("sender.json", json.append(']').toString());
+    }
+
+    /**
+     * Updates HUDs through messenger sending from given looper, and counts tasks each of main and
+     * sender thread runs.
+     *
+     * @return Number of tasks run by main thread.
+     */
+    private static int benchmarkSender(int hudCount, Looper senderLooper, StringBuilder json) {
+        Context context = RuntimeEnvironment.application;
+        List<Hud> huds = new ArrayList<>(hudCount);
+        for (int i = 0; i < hudCount; i++) {
+            huds.add(new CounterTextHud(context, true));
+        }
+
+        MarshallingService service = new MarshallingService();
+        HudMessenger messenger =
+                new HudMessenger(service, senderLooper, BATCH_WINDOW, 0, LISTENER);
+
+        Scheduler mainScheduler = schedulerOf(Looper.getMainLooper());
+        Scheduler senderScheduler = schedulerOf(HudMessenger.getSenderLooper());
+        int mainThreadTasks = 0;
+        int senderThreadTasks = 0;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            for (Hud hud : huds) {
+                messenger.update(hud);
+            }
+
+            // Batch window is shorter than update interval, so all tasks are run before next round
+            boolean ran;
+            do {
+                ran = false;
+                if (mainScheduler.runOneTask()) {
+                    mainThreadTasks++;
+                    ran = true;
+                }
+                if (senderLooper != Looper.getMainLooper() && senderScheduler.runOneTask()) {
+                    senderThreadTasks++;
+                    ran = true;
+                }
+            } while (ran);
+        }
+
+        assertEquals(ROUNDS, service.transactionCount);
+
+        json.append("{\"mainThreadTasks\":").append(mainThreadTasks)
+                .append(",\"senderThreadTasks\":").append(senderThreadTasks)
+                .append('}');
+        return mainThreadTasks;
+    }
+
+    private static Scheduler schedulerOf(Looper looper) {
+        return ((ShadowLooper) ShadowExtractor.extract(looper)).getScheduler();
+    }
+}
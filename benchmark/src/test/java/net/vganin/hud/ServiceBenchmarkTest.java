@@ -0,0 +1,352 @@
+package net.vganin.hud;
+
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Binder;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.Parcel;
+import android.os.RemoteException;
+import android.util.DisplayMetrics;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.WindowManager;
+import android.widget.RemoteViews;
+
+import net.vganin.hud.benchmark.BuildConfig;
+import net.vganin.hud.benchmark.R;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.internal.ShadowExtractor;
+import org.robolectric.shadows.ShadowWindowManagerImpl;
+import org.robolectric.util.Scheduler;
+import org.robolectric.util.ServiceController;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures service side of HUD updates: handling batch of updates of all HUDs, sent either as
+ * {@link IHudService} call or as {@link Message}, applying them to overlay, and parceling them.
+ * Text HUDs are also applied and drawn by both canvas and remote views backends.
+ * Results by HUD count are written to {@code build/benchmark/service.json}. Times are in
+ * microseconds, sizes are in bytes.
+ * <p>
+ * Absolute numbers reflect Robolectric rather than device, so results are meant for comparing
+ * runs of the same machine.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21,
+        shadows = {ShadowRealRemoteViews.class, ShadowCachedAccessibilityManager.class})
+public class ServiceBenchmarkTest {
+
+    private static final int[] HUD_COUNTS = {1, 10, 100};
+
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int ROUNDS = 100;
+
+    private static final Method ON_DRAW;
+
+    static {
+        try {
+            ON_DRAW = View.class.getDeclaredMethod("onDraw", Canvas.class);
+            ON_DRAW.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test
+    public void runBenchmarks() throws RemoteException, IOException {
+        StringBuilder json = new StringBuilder("[");
+
+        for (int hudCount : HUD_COUNTS) {
+            if (hudCount != HUD_COUNTS[0]) {
+                json.append(',');
+            }
+            json.append("{\"hudCount\":").append(hudCount).append(',');
+            benchmarkService(hudCount, false, json);
+            json.append(',');
+            benchmarkService(hudCount, true, json);
+            json.append(',');
+            benchmarkTextRendering(hudCount, true, json);
+            json.append(',');
+            benchmarkTextRendering(hudCount, false, json);
+            json.append(',');
+            benchmarkParceling(hudCount, json);
+            json.append('}');
+        }
+
+        BenchmarkOutput.write("service.json", json.append(']').toString());
+    }
+
+    /**
+     * Sends batch of updates of all HUDs per round, as client does, and times handling of the
+     * batch and applying it to overlay separately. Main looper is paused, so that each step runs
+     * on its own. Either way batch is delivered in process, as Robolectric parcels lose binders.
+     *
+     * @param messenger Whether batch is sent as {@link Message} rather than {@link IHudService}
+     *                  call. Results of the former are prefixed with {@code messenger}.
+     */
+    private static void benchmarkService(int hudCount, boolean messenger, StringBuilder json)
+            throws RemoteException {
+        ServiceController<HudService> controller =
+                Robolectric.buildService(HudService.class).attach().create();
+        IHudService service = IHudService.Stub.asInterface(
+                controller.get().onBind(new Intent(Const.ACTION_BIND_TYPED)));
+        Messenger serviceMessenger = messengerOf(controller.get());
+
+        List<IBinder> tokens = new ArrayList<>();
+        for (int i = 0; i < hudCount; i++) {
+            tokens.add(new Binder());
+        }
+
+        HudHistogram handleTime = new HudHistogram();
+        HudHistogram applyTime = new HudHistogram();
+
+        Scheduler scheduler = Robolectric.getForegroundThreadScheduler();
+        scheduler.pause();
+        try {
+            for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+                if (round == WARMUP_ROUNDS) {
+                    assertEquals(hudCount, HudStats.INSTANCE.getInflatedViewCount());
+                    HudStats.INSTANCE.reset();
+                }
+
+                if (messenger) {
+                    serviceMessenger.send(MessengerTransport.createUpdateBatch(
+                            tokens, views(hudCount), new int[hudCount]));
+                } else {
+                    service.updateBatch(tokens, views(hudCount), new int[hudCount], null);
+                }
+
+                long startTime = System.nanoTime();
+                scheduler.runOneTask();
+                long handledTime = System.nanoTime();
+                // Applying and layout of overlay windows it causes
+                scheduler.advanceToLastPostedRunnable();
+                long appliedTime = System.nanoTime();
+
+                if (round >= WARMUP_ROUNDS) {
+                    handleTime.record((handledTime - startTime) / 1000);
+                    applyTime.record((appliedTime - handledTime) / 1000);
+                }
+            }
+        } finally {
+            scheduler.unPause();
+        }
+
+        // Views are inflated once and reapplied after
+        assertEquals(0, HudStats.INSTANCE.getInflatedViewCount());
+
+        appendJson(json, messenger ? "messengerHandleTime" : "handleTime", handleTime)
+                .append(',');
+        appendJson(json, messenger ? "messengerApplyTime" : "applyTime", applyTime);
+        if (!messenger) {
+            json.append(",\"stats\":").append(HudStats.INSTANCE.toJson());
+        }
+
+        controller.destroy();
+        HudStats.INSTANCE.reset();
+    }
+
+    /**
+     * Sends text updates of all HUDs per round, drawn either by single {@link TextOverlayView} or
+     * by remote view of each HUD, and times applying them to overlay and drawing overlay
+     * separately. Draw time includes measuring and laying out overlay, as frame after update
+     * does.
+     *
+     * @param canvas Whether texts are rendered by canvas. Results are prefixed with either
+     *               {@code canvasText} or {@code viewsText}.
+     */
+    private static void benchmarkTextRendering(int hudCount, boolean canvas, StringBuilder json)
+            throws RemoteException {
+        ServiceController<HudService> controller =
+                Robolectric.buildService(HudService.class).attach().create();
+        IHudService service = IHudService.Stub.asInterface(
+                controller.get().onBind(new Intent(Const.ACTION_BIND_TYPED)));
+
+        List<IBinder> tokens = new ArrayList<>();
+        List<Hud> huds = new ArrayList<>();
+        for (int i = 0; i < hudCount; i++) {
+            tokens.add(new Binder());
+            huds.add(new CounterTextHud(controller.get(), canvas));
+        }
+
+        HudHistogram applyTime = new HudHistogram();
+        HudHistogram drawTime = new HudHistogram();
+
+        Scheduler scheduler = Robolectric.getForegroundThreadScheduler();
+        scheduler.pause();
+        try {
+            for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+                List<HudUpdate> updates = new ArrayList<>(hudCount);
+                for (Hud hud : huds) {
+                    updates.add(hud.makeUpdate(true));
+                }
+                service.updateBatch(tokens, updates, new int[hudCount], null);
+                scheduler.runOneTask();
+
+                long startTime = System.nanoTime();
+                scheduler.advanceToLastPostedRunnable();
+                long appliedTime = System.nanoTime();
+                long drawnTime = appliedTime + drawWindows(controller.get());
+
+                if (round >= WARMUP_ROUNDS) {
+                    applyTime.record((appliedTime - startTime) / 1000);
+                    drawTime.record((drawnTime - appliedTime) / 1000);
+                }
+            }
+        } finally {
+            scheduler.unPause();
+        }
+
+        String prefix = canvas ? "canvasText" : "viewsText";
+        appendJson(json, prefix + "ApplyTime", applyTime).append(',');
+        appendJson(json, prefix + "DrawTime", drawTime);
+
+        controller.destroy();
+        HudStats.INSTANCE.reset();
+    }
+
+    /**
+     * Measures, lays out and draws all overlay windows of service.
+     *
+     * @return Time it took in nanoseconds.
+     */
+    private static long drawWindows(HudService service) {
+        WindowManager windowManager =
+                (WindowManager) service.getSystemService(HudService.WINDOW_SERVICE);
+        ShadowWindowManagerImpl shadow =
+                (ShadowWindowManagerImpl) ShadowExtractor.extract(windowManager);
+        DisplayMetrics metrics = service.getResources().getDisplayMetrics();
+        int widthSpec =
+                View.MeasureSpec.makeMeasureSpec(metrics.widthPixels, View.MeasureSpec.AT_MOST);
+        int heightSpec =
+                View.MeasureSpec.makeMeasureSpec(metrics.heightPixels, View.MeasureSpec.AT_MOST);
+
+        long time = 0;
+        for (View window : shadow.getViews()) {
+            // Canvas of Robolectric records what is drawn, so each frame gets fresh one
+            Canvas canvas = new Canvas(Bitmap.createBitmap(
+                    metrics.widthPixels, metrics.heightPixels, Bitmap.Config.ARGB_8888));
+
+            long startTime = System.nanoTime();
+            window.measure(widthSpec, heightSpec);
+            window.layout(0, 0, window.getMeasuredWidth(), window.getMeasuredHeight());
+            draw(window, canvas);
+            time += System.nanoTime() - startTime;
+        }
+        return time;
+    }
+
+    /**
+     * Draws view and its children. Robolectric draws background of view only.
+     */
+    private static void draw(View view, Canvas canvas) {
+        view.draw(canvas);
+        try {
+            ON_DRAW.invoke(view, canvas);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+
+        if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); i++) {
+                View child = group.getChildAt(i);
+                canvas.save();
+                canvas.translate(child.getLeft(), child.getTop());
+                draw(child, canvas);
+                canvas.restore();
+            }
+        }
+    }
+
+    /**
+     * Times writing updates of all HUDs to one parcel, as transaction of batch does, and reading
+     * them back.
+     */
+    private static void benchmarkParceling(int hudCount, StringBuilder json) {
+        HudHistogram writeTime = new HudHistogram();
+        HudHistogram readTime = new HudHistogram();
+        HudHistogram size = new HudHistogram();
+
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            List<HudUpdate> updates = views(hudCount);
+            for (HudUpdate update : updates) {
+                // Actions make views parcel bigger
+                update.views.setTextViewText(R.id.benchmark_label, "HUD " + round);
+                update.views.setTextViewText(R.id.benchmark_value, String.valueOf(round));
+            }
+
+            Parcel parcel = Parcel.obtain();
+            try {
+                long startTime = System.nanoTime();
+                parcel.writeTypedList(updates);
+                long writtenTime = System.nanoTime();
+                parcel.setDataPosition(0);
+                parcel.createTypedArrayList(HudUpdate.CREATOR);
+                long readBackTime = System.nanoTime();
+
+                if (round >= WARMUP_ROUNDS) {
+                    writeTime.record((writtenTime - startTime) / 1000);
+                    readTime.record((readBackTime - writtenTime) / 1000);
+                    size.record(parcel.dataSize());
+                }
+            } finally {
+                parcel.recycle();
+            }
+        }
+
+        appendJson(json, "parcelWriteTime", writeTime).append(',');
+        appendJson(json, "parcelReadTime", readTime).append(',');
+        appendJson(json, "parcelSize", size);
+    }
+
+    /**
+     * Gets messenger of service. Robolectric gives no binder of it to bind to, but delivers
+     * messages sent through it to service handler.
+     */
+    private static Messenger messengerOf(HudService service) {
+        try {
+            Field field = HudService.class.getDeclaredField("messenger");
+            field.setAccessible(true);
+            return (Messenger) field.get(service);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Makes fresh views update for each HUD, the way {@link Hud#getUpdate()} should.
+     */
+    private static List<HudUpdate> views(int hudCount) {
+        String packageName = RuntimeEnvironment.application.getPackageName();
+
+        List<HudUpdate> updates = new ArrayList<>(hudCount);
+        for (int i = 0; i < hudCount; i++) {
+            updates.add(HudUpdate.ofViews(new RemoteViews(packageName, R.layout.benchmark_hud)));
+        }
+        return updates;
+    }
+
+    private static StringBuilder appendJson(StringBuilder json, String name,
+            HudHistogram histogram) {
+        json.append('"').append(name).append("\":");
+        histogram.appendJson(json);
+        return json;
+    }
+}
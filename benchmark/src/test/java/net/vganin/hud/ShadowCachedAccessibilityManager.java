@@ -0,0 +1,33 @@
+package net.vganin.hud;
+
+import android.content.Context;
+import android.view.accessibility.AccessibilityManager;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowAccessibilityManager;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Makes single accessibility manager per context. Default shadow makes new one each time a view
+ * asks for it, which registers observers in a set of all ones made so far, so setting text gets
+ * slower with each call.
+ */
+@Implements(AccessibilityManager.class)
+public class ShadowCachedAccessibilityManager extends ShadowAccessibilityManager {
+
+    private static final Map<Context, AccessibilityManager> INSTANCES = new WeakHashMap<>();
+
+    @Implementation
+    public static synchronized AccessibilityManager getInstance(Context context)
+            throws Exception {
+        AccessibilityManager instance = INSTANCES.get(context);
+        if (instance == null) {
+            instance = ShadowAccessibilityManager.getInstance(context);
+            INSTANCES.put(context, instance);
+        }
+        return instance;
+    }
+}
@@ -0,0 +1,104 @@
+package net.vganin.hud;
+
+import android.os.Binder;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Parcel;
+import android.os.RemoteException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Marshalling the same batch of updates by {@link TypedTransport} and by
+ * {@link MessengerTransport}, which wraps each update into {@link android.os.Bundle}. Sizes of
+ * both transactions by batch size are written to {@code build/benchmark/transport.json}, as JMH
+ * reports time only.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TransportBenchmark {
+
+    /**
+     * Sizes of typed and messenger transactions by batch size, of all trials run so far.
+     */
+    private static final Map<Integer, int[]> SIZES = new TreeMap<>();
+
+    @Param({"1", "10", "100"})
+    public int size;
+
+    private final MarshallingService service = new MarshallingService();
+    private final TypedTransport typedTransport = new TypedTransport(service, null);
+
+    private final List<IBinder> tokens = new ArrayList<>();
+    private final List<HudUpdate> updates = new ArrayList<>();
+    private int[] sequences;
+
+    @Setup
+    public void setUp() throws RemoteException, IOException {
+        for (int i = 0; i < size; i++) {
+            tokens.add(new Binder());
+
+            HudUpdate update = HudUpdate.ofText("HUD " + i);
+            // Client writes update once and copies it to transaction
+            update.parcel();
+            updates.add(update);
+        }
+        sequences = new int[size];
+
+        typed();
+        SIZES.put(size, new int[]{service.lastTransactionSize, messenger()});
+        writeSizes();
+    }
+
+    @Benchmark
+    public int typed() throws RemoteException {
+        typedTransport.updateBatch(tokens, updates, sequences);
+        return service.lastTransactionSize;
+    }
+
+    /**
+     * Writes message the way {@link android.os.Messenger} does when sending it to another
+     * process. Messenger itself cannot send to binder other than its own in Robolectric.
+     */
+    @Benchmark
+    public int messenger() {
+        Message message = MessengerTransport.createUpdateBatch(tokens, updates, sequences);
+
+        Parcel parcel = Parcel.obtain();
+        try {
+            message.writeToParcel(parcel, 0);
+            return parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static void writeSizes() throws IOException {
+        StringBuilder json = new StringBuilder("[");
+        for (Map.Entry<Integer, int[]> entry : SIZES.entrySet()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append("{\"size\":").append(entry.getKey())
+                    .append(",\"typed\":").append(entry.getValue()[0])
+                    .append(",\"messenger\":").append(entry.getValue()[1])
+                    .append('}');
+        }
+        BenchmarkOutput.write("transport.json", json.append(']').toString());
+    }
+}
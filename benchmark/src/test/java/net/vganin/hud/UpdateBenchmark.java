@@ -0,0 +1,63 @@
+package net.vganin.hud;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merging unsent delta updates of a HUD, which client does for each update superseded in batch
+ * or held back by flow control.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UpdateBenchmark {
+
+    private static final int GRAPH_CAPACITY = 120;
+
+    @Param({"1", "10", "100"})
+    public int size;
+
+    private HudUpdate olderSlots;
+    private HudUpdate newerSlots;
+
+    private HudUpdate olderSamples;
+    private HudUpdate newerSamples;
+
+    @Setup
+    public void setUp() {
+        // Newer update overwrites every other slot of older one
+        olderSlots = slots(size, 0, 1);
+        newerSlots = slots(size, 0, 2);
+
+        olderSamples = HudUpdate.ofGraph(GRAPH_CAPACITY, 0, 100, false, new float[size]);
+        newerSamples = HudUpdate.ofGraph(GRAPH_CAPACITY, 0, 100, false, new float[size]);
+    }
+
+    @Benchmark
+    public HudUpdate mergeSlots() {
+        return newerSlots.mergeWith(olderSlots);
+    }
+
+    @Benchmark
+    public HudUpdate mergeSamples() {
+        return newerSamples.mergeWith(olderSamples);
+    }
+
+    private static HudUpdate slots(int count, int firstId, int idStep) {
+        HudUpdate update = HudUpdate.ofSlots(null, 0, count);
+        for (int i = 0; i < count; i++) {
+            update.slotIds[i] = firstId + i * idStep;
+            update.slotTypes[i] = HudUpdate.SLOT_INT;
+            update.slotNumbers[i] = i;
+        }
+        return update;
+    }
+}
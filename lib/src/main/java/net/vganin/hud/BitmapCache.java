@@ -0,0 +1,93 @@
+package net.vganin.hud;
+
+import android.graphics.Bitmap;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bitmaps of slot HUDs by their content hashes, so that each distinct bitmap is received and kept
+ * once no matter how many HUDs show it. Bitmaps shown by some view are never evicted, others are
+ * evicted least recently used first when cache exceeds its size. Not thread-safe.
+ */
+final class BitmapCache {
+
+    private static final class Entry {
+
+        final Bitmap bitmap;
+        final int bytes;
+
+        /**
+         * Number of slots showing bitmap.
+         */
+        int refs = 0;
+
+        Entry(Bitmap bitmap) {
+            this.bitmap = bitmap;
+            this.bytes = bitmap.getRowBytes() * bitmap.getHeight();
+        }
+    }
+
+    /**
+     * Entries in access order, the least recently used first.
+     */
+    private final Map<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final int maxBytes;
+    private int bytes = 0;
+
+    /**
+     * @param maxBytes Size of bitmaps cache keeps. Bitmaps shown by views are kept beyond it.
+     */
+    BitmapCache(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets bitmap for view to show and protects it from eviction until it is released as many
+     * times as acquired.
+     *
+     * @param bitmap Bitmap to put to cache unless it has bitmap of the same id already, or
+     *               {@code null} to get cached one.
+     * @return Cached bitmap or {@code null} if there is none of given id.
+     */
+    Bitmap acquire(long id, Bitmap bitmap) {
+        Entry entry = entries.get(id);
+        if (entry == null) {
+            if (bitmap == null) {
+                return null;
+            }
+            entry = new Entry(bitmap);
+            entries.put(id, entry);
+            bytes += entry.bytes;
+        }
+
+        entry.refs++;
+        trim();
+        return entry.bitmap;
+    }
+
+    void release(long id) {
+        Entry entry = entries.get(id);
+        if (entry != null && --entry.refs == 0) {
+            trim();
+        }
+    }
+
+    void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    private void trim() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.refs == 0) {
+                iterator.remove();
+                bytes -= entry.bytes;
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package net.vganin.hud;
+
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+import android.support.v4.app.BundleCompat;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Client of {@link HudService} as seen by the service.
+ */
+abstract class ClientProxy {
+
+    private static final String TAG = ClientProxy.class.getSimpleName();
+
+    private static final class MessengerClient extends ClientProxy {
+
+        private final Messenger messenger;
+
+        private MessengerClient(Messenger messenger) {
+            this.messenger = messenger;
+        }
+
+        @Override
+        IBinder asBinder() {
+            return messenger.getBinder();
+        }
+
+        @Override
+        void sendConsumed(List<IBinder> tokens, int[] sequences) throws RemoteException {
+            ArrayList<Bundle> reports = new ArrayList<>(tokens.size());
+            for (int i = 0; i < tokens.size(); i++) {
+                Bundle report = new Bundle();
+                BundleCompat.putBinder(report, Const.EXTRA_TOKEN, tokens.get(i));
+                report.putInt(Const.EXTRA_SEQUENCE, sequences[i]);
+                reports.add(report);
+            }
+
+            Message message = Message.obtain(null, Const.MESSAGE_UPDATE_CONSUMED);
+            message.getData().putParcelableArrayList(Const.EXTRA_BATCH, reports);
+            messenger.send(message);
+        }
+
+        @Override
+        void sendVisibility(boolean visible) throws RemoteException {
+            messenger.send(Message.obtain(null, Const.MESSAGE_VISIBILITY_CHANGED, visible ? 1 : 0,
+                    0));
+        }
+
+        @Override
+        void sendResync(IBinder token) throws RemoteException {
+            Message message = Message.obtain(null, Const.MESSAGE_RESYNC_HUD);
+            BundleCompat.putBinder(message.getData(), Const.EXTRA_TOKEN, token);
+            messenger.send(message);
+        }
+    }
+
+    private static final class TypedClient extends ClientProxy {
+
+        private final IHudClient client;
+
+        private TypedClient(IHudClient client) {
+            this.client = client;
+        }
+
+        @Override
+        IBinder asBinder() {
+            return client.asBinder();
+        }
+
+        @Override
+        void sendConsumed(List<IBinder> tokens, int[] sequences) throws RemoteException {
+            client.onConsumed(tokens, sequences);
+        }
+
+        @Override
+        void sendVisibility(boolean visible) throws RemoteException {
+            client.onVisibilityChanged(visible);
+        }
+
+        @Override
+        void sendResync(IBinder token) throws RemoteException {
+            client.onResyncRequired(token);
+        }
+    }
+
+    private final List<IBinder> consumedTokens = new ArrayList<>();
+    private int[] consumedSequences = new int[8];
+
+    static ClientProxy of(Messenger messenger) {
+        return new MessengerClient(messenger);
+    }
+
+    static ClientProxy of(IHudClient client) {
+        return new TypedClient(client);
+    }
+
+    abstract IBinder asBinder();
+
+    abstract void sendConsumed(List<IBinder> tokens, int[] sequences) throws RemoteException;
+
+    abstract void sendVisibility(boolean visible) throws RemoteException;
+
+    abstract void sendResync(IBinder token) throws RemoteException;
+
+    /**
+     * Tells client whether overlay is visible.
+     */
+    void reportVisibility(boolean visible) {
+        try {
+            sendVisibility(visible);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Error during visibility report send", e);
+        }
+    }
+
+    /**
+     * Asks client to send full update of HUD.
+     */
+    void requestResync(IBinder token) {
+        try {
+            sendResync(token);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Error during resync request send", e);
+        }
+    }
+
+    /**
+     * Queues report of consumed update. Queued reports are sent by {@link #flushConsumed()}.
+     *
+     * @param token HUD token.
+     * @param sequence Sequence number of consumed update.
+     */
+    void reportConsumed(IBinder token, int sequence) {
+        int count = consumedTokens.size();
+        if (count == consumedSequences.length) {
+            int[] sequences = new int[count * 2];
+            System.arraycopy(consumedSequences, 0, sequences, 0, count);
+            consumedSequences = sequences;
+        }
+
+        consumedSequences[count] = sequence;
+        consumedTokens.add(token);
+    }
+
+    /**
+     * Sends all queued reports of consumed updates at once.
+     */
+    void flushConsumed() {
+        int count = consumedTokens.size();
+        if (count == 0) {
+            return;
+        }
+
+        int[] sequences = new int[count];
+        System.arraycopy(consumedSequences, 0, sequences, 0, count);
+
+        try {
+            sendConsumed(new ArrayList<>(consumedTokens), sequences);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Error during consumption report send", e);
+        } finally {
+            consumedTokens.clear();
+        }
+    }
+}
@@ -5,6 +5,11 @@ package net.vganin.hud;
  */
 final class Const {
 
+    /**
+     * Action of binding intent to get {@link IHudService} instead of {@link android.os.Messenger}.
+     */
+    static final String ACTION_BIND_TYPED = "net.vganin.hud.action.BIND_TYPED";
+
     /**
      * Message ID for updating HUD.
      */
@@ -20,13 +25,58 @@ final class Const {
      */
     static final int MESSAGE_TOGGLE_VISIBILITY = 2;
 
+    /**
+     * Message ID for updating several HUDs at once.
+     */
+    static final int MESSAGE_UPDATE_BATCH = 3;
+
+    /**
+     * Message ID for reporting to client which updates service has consumed. Sent to
+     * {@link android.os.Message#replyTo} of update messages which have {@link #EXTRA_SEQUENCE}.
+     * Consumed updates are in {@link #EXTRA_BATCH}, each containing {@link #EXTRA_TOKEN} and
+     * {@link #EXTRA_SEQUENCE}.
+     */
+    static final int MESSAGE_UPDATE_CONSUMED = 4;
+
+    /**
+     * Message ID for notifying client whether overlay is visible, i.e. it is not toggled off and
+     * screen is on. Sent to {@link android.os.Message#replyTo} of update messages when
+     * visibility changes and when client hides overlay. Visibility is in
+     * {@link android.os.Message#arg1}, 1 if visible and 0 otherwise.
+     */
+    static final int MESSAGE_VISIBILITY_CHANGED = 5;
+
+    /**
+     * Message ID for asking client to send full update of HUD as service has lost part of its
+     * state, e.g. evicted cached bitmap. Sent to {@link android.os.Message#replyTo} of update
+     * messages. HUD is in {@link #EXTRA_TOKEN}.
+     */
+    static final int MESSAGE_RESYNC_HUD = 6;
+
     /**
      * Process (and client) identifier. Must be of type {@link android.os.IBinder}.
      */
     static final String EXTRA_TOKEN = "extra_token";
 
     /**
-     * Data bundle for service to display. Must be of type {@link android.widget.RemoteViews}.
+     * Data bundle for service to display. Must be of type {@link HudUpdate}.
      */
     static final String EXTRA_MESSAGE = "extra_message";
+
+    /**
+     * Updates of {@link #MESSAGE_UPDATE_BATCH}. Must be of type {@link java.util.ArrayList} of
+     * {@link android.os.Bundle}, each containing {@link #EXTRA_TOKEN} and {@link #EXTRA_MESSAGE}.
+     */
+    static final String EXTRA_BATCH = "extra_batch";
+
+    /**
+     * Ordinal number of update for its HUD, increasing with each update. Must be of type
+     * {@code int}. Optional, service reports consumption of updates which have it.
+     */
+    static final String EXTRA_SEQUENCE = "extra_sequence";
+
+    /**
+     * Sequence number of update which service should not report consumption of.
+     */
+    static final int NO_SEQUENCE = 0;
 }
@@ -5,10 +5,10 @@ import android.widget.RemoteViews;
 
 public abstract class DebugTextHud extends Hud {
 
-    private final RemoteViews remoteView;
+    private final String packageName;
 
     public DebugTextHud(Context ctx) {
-        remoteView = new RemoteViews(ctx.getPackageName(), R.layout.debug_text_hud);
+        packageName = ctx.getPackageName();
     }
 
     public abstract CharSequence getMessageUpdate();
@@ -17,9 +17,29 @@ public abstract class DebugTextHud extends Hud {
     public final RemoteViews getUpdate() {
         CharSequence messageUpdate = getMessageUpdate();
         if (messageUpdate != null) {
+            RemoteViews remoteView = new RemoteViews(packageName, R.layout.debug_text_hud);
             remoteView.setTextViewText(R.id.debug_text, messageUpdate);
             return remoteView;
         }
         return null;
     }
+
+    /**
+     * Gets whether text is drawn by lightweight canvas renderer of the service instead of being
+     * shown by remote view. Canvas rendered texts cost no view inflation, measure and layout, and
+     * are shown below other HUDs.
+     * <p>
+     * Read on every update.
+     *
+     * @return Value set by {@link HudManager#setCanvasTextRendering(boolean)} by default.
+     */
+    public boolean isCanvasRendered() {
+        return HudManager.isCanvasTextRendering();
+    }
+
+    @Override
+    HudUpdate makeUpdate(boolean full) {
+        return isCanvasRendered()
+                ? HudUpdate.ofText(getMessageUpdate()) : super.makeUpdate(full);
+    }
 }
@@ -0,0 +1,67 @@
+package net.vganin.hud;
+
+/**
+ * Fixed size buffer of last appended floats. Not thread-safe.
+ */
+final class FloatRingBuffer {
+
+    private final float[] data;
+
+    /**
+     * Number of values appended since creation or clearing.
+     */
+    private long count = 0;
+
+    FloatRingBuffer(int capacity) {
+        data = new float[capacity];
+    }
+
+    int capacity() {
+        return data.length;
+    }
+
+    int size() {
+        return (int) Math.min(count, data.length);
+    }
+
+    long count() {
+        return count;
+    }
+
+    void append(float value) {
+        data[(int) (count % data.length)] = value;
+        count++;
+    }
+
+    void append(float[] values) {
+        for (float value : values) {
+            append(value);
+        }
+    }
+
+    /**
+     * @param index Index of value, 0 being the oldest one kept.
+     */
+    float get(int index) {
+        return data[(int) ((count - size() + index) % data.length)];
+    }
+
+    void clear() {
+        count = 0;
+    }
+
+    /**
+     * Copies values appended since given moment which are still kept.
+     *
+     * @param fromCount Value of {@link #count()} at that moment.
+     * @return Values, the oldest first.
+     */
+    float[] copySince(long fromCount) {
+        long first = Math.max(fromCount, count - size());
+        float[] values = new float[(int) (count - first)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = data[(int) ((first + i) % data.length)];
+        }
+        return values;
+    }
+}
@@ -0,0 +1,77 @@
+package net.vganin.hud;
+
+import android.widget.RemoteViews;
+
+/**
+ * HUD drawing graph of float samples, e.g. FPS or heap usage. Add samples via
+ * {@link #addSample(float)} at any time from any thread, they are sent to the service on each
+ * update.
+ * <p>
+ * Only the samples added since previous update are sent, and the service paints only columns of
+ * new samples. Both sides keep no more than {@code capacity} last samples, so memory used is fixed
+ * no matter how long HUD lives.
+ */
+public class GraphHud extends Hud {
+
+    private final int capacity;
+    private final float min;
+    private final float max;
+
+    /**
+     * Last samples. Guarded by itself.
+     */
+    private final FloatRingBuffer samples;
+
+    /**
+     * Value of {@link FloatRingBuffer#count()} when samples were last sent. Guarded by
+     * {@link #samples}.
+     */
+    private long sentCount = 0;
+
+    /**
+     * @param capacity Number of last samples graph shows. Graph is {@code capacity} pixels wide.
+     * @param min Sample value shown at the bottom of graph.
+     * @param max Sample value shown at the top of graph.
+     */
+    public GraphHud(int capacity, float min, float max) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+
+        this.capacity = capacity;
+        this.min = min;
+        this.max = max;
+
+        samples = new FloatRingBuffer(capacity);
+    }
+
+    /**
+     * Adds sample to the graph. It will be shown on next update.
+     *
+     * @param value Sample value. Values out of graph range are shown at its bounds.
+     */
+    public void addSample(float value) {
+        synchronized (samples) {
+            samples.append(value);
+        }
+    }
+
+    /**
+     * Graph is not made of remote views.
+     *
+     * @return {@code null}.
+     */
+    @Override
+    public final RemoteViews getUpdate() {
+        return null;
+    }
+
+    @Override
+    HudUpdate makeUpdate(boolean full) {
+        synchronized (samples) {
+            float[] newSamples = samples.copySince(full ? 0 : sentCount);
+            sentCount = samples.count();
+            return HudUpdate.ofGraph(capacity, min, max, full, newSamples);
+        }
+    }
+}
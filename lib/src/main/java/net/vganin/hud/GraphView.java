@@ -0,0 +1,118 @@
+package net.vganin.hud;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.view.View;
+
+/**
+ * View drawing samples of {@link GraphHud}, one pixel column per sample, the newest on the right.
+ * <p>
+ * Columns are painted to a bitmap used as ring: each new sample overwrites column of the oldest
+ * one, and scrolling is done by drawing the bitmap in two parts. So only new columns are painted
+ * per update, and memory used is fixed.
+ */
+final class GraphView extends View {
+
+    private static final int LINE_COLOR = 0xff119911;
+    private static final int BACKGROUND_COLOR = 0x55000000;
+    private static final int HEIGHT_DP = 48;
+
+    private final int capacity;
+    private final float min;
+    private final float max;
+
+    private final FloatRingBuffer samples;
+
+    private final Bitmap bitmap;
+    private final Canvas bitmapCanvas;
+    private final Paint linePaint = new Paint();
+
+    private final Rect source = new Rect();
+    private final Rect destination = new Rect();
+
+    GraphView(Context ctx, int capacity, float min, float max) {
+        super(ctx);
+
+        this.capacity = capacity;
+        this.min = min;
+        this.max = max;
+
+        samples = new FloatRingBuffer(capacity);
+
+        int height = (int) (HEIGHT_DP * ctx.getResources().getDisplayMetrics().density);
+        bitmap = Bitmap.createBitmap(capacity, Math.max(height, 1), Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(BACKGROUND_COLOR);
+        bitmapCanvas = new Canvas(bitmap);
+
+        linePaint.setColor(LINE_COLOR);
+    }
+
+    boolean isConfiguredAs(int capacity, float min, float max) {
+        return this.capacity == capacity && this.min == min && this.max == max;
+    }
+
+    void reset() {
+        samples.clear();
+        bitmap.eraseColor(BACKGROUND_COLOR);
+        invalidate();
+    }
+
+    void append(float[] values) {
+        for (float value : values) {
+            int column = (int) (samples.count() % capacity);
+            float previous = samples.size() > 0 ? samples.get(samples.size() - 1) : value;
+            drawColumn(column, previous, value);
+            samples.append(value);
+        }
+
+        if (values.length > 0) {
+            invalidate();
+        }
+    }
+
+    private void drawColumn(int column, float previous, float value) {
+        int from = toY(previous);
+        int to = toY(value);
+
+        bitmapCanvas.save();
+        bitmapCanvas.clipRect(column, 0, column + 1, bitmap.getHeight());
+        bitmapCanvas.drawColor(BACKGROUND_COLOR, PorterDuff.Mode.SRC);
+        // Vertical segment from previous sample keeps the line continuous
+        bitmapCanvas.drawRect(column, Math.min(from, to), column + 1, Math.max(from, to) + 1,
+                linePaint);
+        bitmapCanvas.restore();
+    }
+
+    private int toY(float value) {
+        float range = max - min;
+        float fraction = range > 0 ? (value - min) / range : 0;
+        fraction = Math.min(Math.max(fraction, 0), 1);
+        return Math.round((1 - fraction) * (bitmap.getHeight() - 1));
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        setMeasuredDimension(
+                resolveSize(capacity, widthMeasureSpec),
+                resolveSize(bitmap.getHeight(), heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        int height = bitmap.getHeight();
+        // Column of the oldest sample goes first
+        int oldest = (int) (samples.count() % capacity);
+
+        source.set(oldest, 0, capacity, height);
+        destination.set(0, 0, capacity - oldest, height);
+        canvas.drawBitmap(bitmap, source, destination, null);
+
+        source.set(0, 0, oldest, height);
+        destination.set(capacity - oldest, 0, capacity, height);
+        canvas.drawBitmap(bitmap, source, destination, null);
+    }
+}
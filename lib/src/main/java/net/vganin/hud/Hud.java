@@ -5,8 +5,11 @@ import android.content.Context;
 import android.os.Binder;
 import android.os.IBinder;
 import android.support.annotation.RequiresPermission;
+import android.view.Gravity;
 import android.widget.RemoteViews;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * HUD entry. Implement this class and pass it to {@link HudManager#add(Context, Hud)} method to
  * show your entry as overlay.
@@ -16,15 +19,38 @@ public abstract class Hud {
     public final static int MINIMUM_UPDATE_PERIOD = 100;
     public final static int NO_PERIODIC_UPDATE = -1;
 
+    /**
+     * Priorities of HUD updates. Under load, periods of low priority HUDs are stretched first,
+     * normal priority ones next, and critical ones are kept.
+     */
+    public final static int PRIORITY_LOW = 0;
+    public final static int PRIORITY_NORMAL = 1;
+    public final static int PRIORITY_CRITICAL = 2;
+
+    static final int DEFAULT_GRAVITY = Gravity.START | Gravity.BOTTOM;
+
     private static final int DEFAULT_UPDATE_PERIOD = 1000;
+    private static final int DEFAULT_UPDATE_BUDGET = 8;
+    private static final int DEFAULT_UPDATE_TOLERANCE = 50;
 
     /**
      * Hud ID. Additionally it helps to notify service whether process is alive to remove dead entry.
      */
     final IBinder mToken = new Binder();
 
+    final AtomicLong sentUpdates = new AtomicLong();
+    final AtomicLong skippedUpdates = new AtomicLong();
+    final AtomicLong supersededUpdates = new AtomicLong();
+    final AtomicLong overBudgetUpdates = new AtomicLong();
+
+    volatile int queuedUpdates = 0;
+
     /**
      * Gets remote view to hand to the service. This view will be displayed as overlay.
+     * <p>
+     * Return new remote view which fully describes current state each time. Remote view keeps
+     * every action set on it, so reused one grows with each update, and updates which show
+     * nothing new are recognized and not sent only when their views are equal.
      *
      * @return Any remote view group.
      */
@@ -36,12 +62,11 @@ public abstract class Hud {
      * value becomes greater.
      * <p>
      * Return {@link #NO_PERIODIC_UPDATE} if you don't want periodic updates. You can update
-     * manually via {@link #requestUpdate(Context ctx)} method (e.g. in response to event).
+     * manually via {@link #requestUpdate(Context ctx)} method (e.g. in response to event). If HUD
+     * displays some value, consider {@link ObservableHud} instead, which is updated whenever the
+     * value changes.
      * <p>
-     * In order to switch from {@link #NO_PERIODIC_UPDATE} to periodic updates you must call
-     * {@link #requestUpdate(Context ctx)} at least once after this method starts returning
-     * different value. This is due to the fact that Manager simply cannot discover that you changed
-     * value, so you need to notify it.
+     * Period is read when HUD is added and when update is requested.
      *
      * @return Value of update period in milliseconds.
      */
@@ -49,6 +74,70 @@ public abstract class Hud {
         return DEFAULT_UPDATE_PERIOD;
     }
 
+    /**
+     * Gets priority of this HUD updates. HUDs due at the same time are updated in order of
+     * priority, then earliest deadline first. Use {@link #PRIORITY_CRITICAL} for HUDs which must
+     * stay on time under load, like error counters or connection status.
+     * <p>
+     * Priority is read when HUD is added and when update is requested.
+     *
+     * @return One of {@link #PRIORITY_LOW}, {@link #PRIORITY_NORMAL} (default) or
+     * {@link #PRIORITY_CRITICAL}.
+     */
+    public int getPriority() {
+        return PRIORITY_NORMAL;
+    }
+
+    /**
+     * Gets how late update of this HUD may start. HUDs of the same priority due at the same time
+     * are updated in order of the time they got due plus their tolerance, and updates starting
+     * later than that make updates of low priority HUDs less frequent until load goes down.
+     * <p>
+     * Tolerance is read when HUD is added and when update is requested.
+     *
+     * @return Tolerance in milliseconds.
+     */
+    public int getUpdateTolerance() {
+        return DEFAULT_UPDATE_TOLERANCE;
+    }
+
+    /**
+     * Gets time {@link #getUpdate()} is expected to take. Updates taking longer are counted by
+     * {@link #getOverBudgetUpdateCount()}.
+     *
+     * @return Time budget in milliseconds.
+     */
+    public int getUpdateBudget() {
+        return DEFAULT_UPDATE_BUDGET;
+    }
+
+    /**
+     * Gets place of overlay this HUD is shown at. HUDs of the same gravity and offsets share
+     * overlay window and are stacked in it one under another. Each window is laid out on its own,
+     * so frequent updates of HUDs in one window don't cause relayout of HUDs in others.
+     * <p>
+     * Place is read on every update and takes effect with the next update HUD sends.
+     *
+     * @return Gravity as defined by {@link Gravity}, bottom start corner by default.
+     */
+    public int getGravity() {
+        return DEFAULT_GRAVITY;
+    }
+
+    /**
+     * @return Horizontal offset from the edge given by {@link #getGravity()} in pixels.
+     */
+    public int getOffsetX() {
+        return 0;
+    }
+
+    /**
+     * @return Vertical offset from the edge given by {@link #getGravity()} in pixels.
+     */
+    public int getOffsetY() {
+        return 0;
+    }
+
     /**
      * Requests to update this HUD immediately. As soon as this request will be treated, value
      * returned from {@link #getUpdate} will be used.
@@ -57,4 +146,75 @@ public abstract class Hud {
     public void requestUpdate(Context ctx) {
         HudManager.requestImmediateUpdate(ctx, this);
     }
+
+    /**
+     * Makes update to send to the service.
+     *
+     * @param full Whether service may know nothing of this HUD, so that update must be complete.
+     * @return Update.
+     */
+    HudUpdate makeUpdate(boolean full) {
+        return HudUpdate.ofViews(getUpdate());
+    }
+
+    /**
+     * Called by {@link HudManager} when this HUD is added.
+     */
+    void onAdded(Context ctx) {
+    }
+
+    /**
+     * Called by {@link HudManager} when this HUD is removed.
+     */
+    void onRemoved() {
+    }
+
+    /**
+     * Gets number of updates sent to the service.
+     *
+     * @return Sent updates count.
+     */
+    public long getSentUpdateCount() {
+        return sentUpdates.get();
+    }
+
+    /**
+     * Gets number of updates not sent to the service because their content was identical to
+     * the previous update.
+     *
+     * @return Skipped updates count.
+     */
+    public long getSkippedUpdateCount() {
+        return skippedUpdates.get();
+    }
+
+    /**
+     * Gets number of updates dropped before being sent to the service because newer update was
+     * made meanwhile.
+     *
+     * @return Superseded updates count.
+     */
+    public long getSupersededUpdateCount() {
+        return supersededUpdates.get();
+    }
+
+    /**
+     * Gets number of updates which took longer than {@link #getUpdateBudget()} to make.
+     *
+     * @return Over budget updates count.
+     */
+    public long getOverBudgetUpdateCount() {
+        return overBudgetUpdates.get();
+    }
+
+    /**
+     * Gets number of updates either waiting to be sent or sent but not consumed by the service
+     * yet. Tracked only if flow control is enabled via
+     * {@link HudManager#setMaxInFlightUpdates(int)}.
+     *
+     * @return Update queue depth.
+     */
+    public int getQueuedUpdateCount() {
+        return queuedUpdates;
+    }
 }
@@ -0,0 +1,115 @@
+package net.vganin.hud;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of non-negative values. Values are counted in buckets of powers of two, so
+ * percentiles are approximate within factor of two.
+ * <p>
+ * Recording neither locks nor allocates and may happen from any thread concurrently with reading.
+ */
+public final class HudHistogram {
+
+    /**
+     * Bucket {@code i > 0} counts values in {@code [2^(i-1), 2^i)}, bucket 0 counts zeros.
+     */
+    private static final int BUCKET_COUNT = Long.SIZE + 1;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    HudHistogram() {
+    }
+
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long currentMax;
+        do {
+            currentMax = max.get();
+        } while (value > currentMax && !max.compareAndSet(currentMax, value));
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * @return Number of recorded values.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return Mean of recorded values or zero if nothing was recorded.
+     */
+    public long getMean() {
+        long count = this.count.get();
+        return count > 0 ? sum.get() / count : 0;
+    }
+
+    /**
+     * @return Maximum of recorded values.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets value which given fraction of recorded values does not exceed.
+     *
+     * @param fraction Fraction from 0 to 1, e.g. 0.99 for 99th percentile.
+     * @return Upper bound of bucket the percentile falls into, but not greater than
+     * {@link #getMax()}. Zero if nothing was recorded.
+     */
+    public long getPercentile(double fraction) {
+        long total = 0;
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+
+        long rank = (long) Math.ceil(Math.min(Math.max(fraction, 0), 1) * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                long upperBound = i == 0 ? 0 : i == Long.SIZE ? Long.MAX_VALUE : (1L << i) - 1;
+                return Math.min(upperBound, max.get());
+            }
+        }
+        return 0;
+    }
+
+    void appendJson(StringBuilder json) {
+        json.append("{\"count\":").append(getCount())
+                .append(",\"mean\":").append(getMean())
+                .append(",\"p50\":").append(getPercentile(0.5))
+                .append(",\"p90\":").append(getPercentile(0.9))
+                .append(",\"p99\":").append(getPercentile(0.99))
+                .append(",\"max\":").append(getMax())
+                .append('}');
+    }
+
+    @Override
+    public String toString() {
+        return "p50=" + getPercentile(0.5) + " p99=" + getPercentile(0.99) + " max=" + getMax()
+                + " n=" + getCount();
+    }
+}
@@ -5,69 +5,146 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.support.annotation.RequiresPermission;
 
-import java.util.HashSet;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Communication bridge between client and service.
+ * Communication bridge between client and service. All methods may be called from any thread.
  */
 public final class HudManager {
 
-    private static class MessageWorker implements Runnable {
-        private final HudMessenger hudMessenger;
-        private final Hud hud;
-
-        private MessageWorker(HudMessenger hudMessenger, Hud hud) {
-            this.hudMessenger = hudMessenger;
-            this.hud = hud;
-        }
-
-        @Override
-        public void run() {
-            hudMessenger.update(hud);
-        }
-    }
+    private static final int STATE_DISCONNECTED = 0;
+    private static final int STATE_CONNECTING = 1;
+    private static final int STATE_CONNECTED = 2;
 
     private static final ServiceConnection CONNECTION = new ServiceConnection() {
 
         @Override
         public void onServiceConnected(ComponentName name, IBinder service) {
-            messenger = new HudMessenger(service);
-            connecting = false;
+            messenger = new HudMessenger(service, batchWindow, maxInFlightUpdates,
+                    MESSENGER_LISTENER);
+            STATE.set(STATE_CONNECTED);
 
             runAllPendingActions();
-            clearActionQueue();
         }
 
         @Override
         public void onServiceDisconnected(ComponentName name) {
             cancelAll();
-            clearActionQueue();
+            clearPendingActions();
 
             messenger = null;
+            STATE.set(STATE_DISCONNECTED);
+            SCHEDULER.setPaused(false);
         }
     };
 
-    private static final ScheduledExecutorService EXECUTOR =
-            Executors.newSingleThreadScheduledExecutor();
+    /**
+     * Stops asking HUDs for updates while overlay is invisible, then updates each of them once
+     * when it gets visible. Updates HUDs service has lost state of.
+     */
+    private static final HudMessenger.Listener MESSENGER_LISTENER =
+            new HudMessenger.Listener() {
+                @Override
+                public void onVisibilityChanged(boolean visible) {
+                    SCHEDULER.setPaused(!visible);
+
+                    if (visible) {
+                        for (Hud hud : SCHEDULED.keySet()) {
+                            scheduleUpdate(hud, NO_DELAY);
+                        }
+                    }
+                }
+
+                @Override
+                public void onResyncRequired(IBinder token) {
+                    for (Hud hud : SCHEDULED.keySet()) {
+                        if (hud.mToken == token) {
+                            scheduleUpdate(hud, NO_DELAY);
+                        }
+                    }
+                }
+            };
+
+    private static final HudScheduler SCHEDULER = new HudScheduler(new HudScheduler.Callback() {
 
-    private static final Map<Hud, ScheduledFuture> SCHEDULED = new LinkedHashMap<>();
+        @Override
+        public void onDue(Hud hud) {
+            HudMessenger hudMessenger = messenger;
+            if (hudMessenger != null) {
+                hudMessenger.update(hud);
+            }
+        }
+    });
+
+    /**
+     * HUDs shown on overlay. Used as concurrent set.
+     */
+    private static final Map<Hud, Boolean> SCHEDULED = new ConcurrentHashMap<>();
 
-    private static final List<Runnable> TO_EXECUTE_AFTER_CONNECT = new LinkedList<>();
+    /**
+     * Actions requested while not connected. Updates are recorded with {@link #NO_DELAY} for
+     * periodic updates.
+     */
+    private static final PendingActions PENDING = new PendingActions();
+
+    /**
+     * Schedules pending updates of HUDs which have not been removed while waiting for connection.
+     */
+    private static final PendingActions.Callback PENDING_UPDATE_RUNNER =
+            new PendingActions.Callback() {
+                @Override
+                public void onUpdate(Hud hud, long delay) {
+                    if (SCHEDULED.containsKey(hud)) {
+                        scheduleUpdate(hud, delay);
+                    }
+                }
+            };
+
+    private static final long NO_DELAY = 0;
+
+    /**
+     * Disconnects from the service if no HUDs were added during linger period.
+     */
+    private static final Runnable LINGER_EXPIRATION = new Runnable() {
+        @Override
+        public void run() {
+            Context ctx = lingerContext;
+            if (ctx != null && SCHEDULED.isEmpty()) {
+                disconnect(ctx);
+            }
+        }
+    };
+
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    /**
+     * Connection state. Goes from {@link #STATE_DISCONNECTED} to {@link #STATE_CONNECTING} on
+     * bind, then to {@link #STATE_CONNECTED} when service is connected, and back to
+     * {@link #STATE_DISCONNECTED} on unbind or disconnection.
+     */
+    private static final AtomicInteger STATE = new AtomicInteger(STATE_DISCONNECTED);
 
-    private static HudMessenger messenger;
-    private static boolean connecting = false;
+    private static final int DEFAULT_BATCH_WINDOW = 10;
+    private static final int DEFAULT_LINGER_PERIOD = 5000;
+
+    private static volatile HudMessenger messenger;
+
+    private static volatile int batchWindow = DEFAULT_BATCH_WINDOW;
+    private static volatile int maxInFlightUpdates = 0;
+    private static volatile boolean canvasTextRendering = false;
+    private static volatile int lingerPeriod = DEFAULT_LINGER_PERIOD;
+
+    /**
+     * Application context to disconnect with when linger period expires.
+     */
+    private static volatile Context lingerContext;
 
     private HudManager() {
         throw new UnsupportedOperationException("Global static class."
@@ -75,7 +152,93 @@ public final class HudManager {
     }
 
     public static boolean isConnected() {
-        return messenger != null;
+        return STATE.get() == STATE_CONNECTED;
+    }
+
+    /**
+     * Makes periodic updates of all HUDs happen at multiples of given quantum. HUDs with close
+     * update periods are then updated at the same moments and their updates share transactions to
+     * the service. Actual update periods are rounded up to the quantum. Takes effect on next
+     * scheduling of HUD.
+     *
+     * @param millis Quantum in milliseconds, zero to disable snapping.
+     */
+    public static void setUpdatePeriodQuantum(int millis) {
+        SCHEDULER.setQuantum(Math.max(millis, 0));
+    }
+
+    /**
+     * Sets time window in which HUD updates are gathered to be sent to the service in one
+     * transaction. Larger window means fewer transactions but greater update latency. Takes effect
+     * on next connection to the service.
+     *
+     * @param millis Batch window in milliseconds, zero to send updates as soon as possible.
+     */
+    public static void setBatchWindow(int millis) {
+        batchWindow = Math.max(millis, 0);
+    }
+
+    /**
+     * Enables flow control between client and service. Service reports each update it has applied,
+     * and no more than given number of updates per HUD may be sent but not applied yet. Updates made
+     * beyond that limit wait for service, each newer one replacing the older one. This way busy
+     * service never gets stale updates piled up. Takes effect on next connection to the service.
+     *
+     * @param count Maximum number of unapplied updates per HUD, zero to disable flow control.
+     * @see Hud#getQueuedUpdateCount()
+     * @see Hud#getSupersededUpdateCount()
+     */
+    public static void setMaxInFlightUpdates(int count) {
+        maxInFlightUpdates = Math.max(count, 0);
+    }
+
+    /**
+     * Sets time connection to the service is kept after the last HUD is removed. HUD added
+     * meanwhile reuses the connection, so that neither binding nor overlay window set up is
+     * repeated.
+     *
+     * @param millis Linger period in milliseconds, zero to disconnect right away.
+     */
+    public static void setLingerPeriod(int millis) {
+        lingerPeriod = Math.max(millis, 0);
+    }
+
+    /**
+     * Connects to the service ahead of time, so that the service sets up overlay window before
+     * the first HUD is added. Connection is kept until HUDs are added and then removed.
+     *
+     * @param ctx Context.
+     */
+    @RequiresPermission(Manifest.permission.SYSTEM_ALERT_WINDOW)
+    public static void prewarm(Context ctx) {
+        if (!isConnected()) {
+            ensureConnected(ctx);
+        }
+    }
+
+    /**
+     * Makes texts of {@link DebugTextHud}s drawn by lightweight canvas renderer of the service
+     * instead of being shown by remote views. Individual HUDs may override it via
+     * {@link DebugTextHud#isCanvasRendered()}.
+     *
+     * @param enabled Whether canvas rendering is used by default.
+     */
+    public static void setCanvasTextRendering(boolean enabled) {
+        canvasTextRendering = enabled;
+    }
+
+    static boolean isCanvasTextRendering() {
+        return canvasTextRendering;
+    }
+
+    /**
+     * Gets costs of HUD updates recorded in this process. Recording is always on.
+     *
+     * @return Process-wide statistics.
+     * @see StatsHud
+     */
+    public static HudStats getStats() {
+        return HudStats.INSTANCE;
     }
 
     /**
@@ -85,13 +248,23 @@ public final class HudManager {
      * @param hud HUD implementation.
      */
     @RequiresPermission(Manifest.permission.SYSTEM_ALERT_WINDOW)
-    public static void add(Context ctx, final Hud hud) {
-        executeConnectionDependentAction(ctx, new Runnable() {
-            @Override
-            public void run() {
-                postUpdate(hud);
-            }
-        });
+    public static void add(Context ctx, Hud hud) {
+        hud.onAdded(ctx);
+
+        if (SCHEDULED.isEmpty()) {
+            HudStats.INSTANCE.startupStarted();
+        }
+
+        // Registered before connection is checked, so that concurrent removal of the last HUD
+        // either sees this one or is seen by connection check
+        SCHEDULED.put(hud, Boolean.TRUE);
+
+        HudMessenger hudMessenger = messenger;
+        if (hudMessenger != null) {
+            hudMessenger.add(hud);
+        }
+
+        executeConnectionDependentUpdate(ctx, hud, NO_DELAY);
     }
 
     /**
@@ -102,13 +275,18 @@ public final class HudManager {
      */
     @RequiresPermission(Manifest.permission.SYSTEM_ALERT_WINDOW)
     public static void remove(Context ctx, Hud hud) {
+        hud.onRemoved();
         cancel(hud);
 
-        if (isConnected()) {
-            messenger.remove(hud);
+        // Cancels out update requested while not connected
+        PENDING.removeUpdate(hud);
+
+        HudMessenger hudMessenger = messenger;
+        if (hudMessenger != null) {
+            hudMessenger.remove(hud);
 
             if (SCHEDULED.isEmpty()) {
-                disconnect(ctx);
+                disconnectAfterLinger(ctx);
             }
         }
     }
@@ -121,12 +299,14 @@ public final class HudManager {
      */
     @RequiresPermission(Manifest.permission.SYSTEM_ALERT_WINDOW)
     public static void toggleVisibility(Context ctx) {
-        executeConnectionDependentAction(ctx, new Runnable() {
-            @Override
-            public void run() {
-                messenger.toggleVisibility();
-            }
-        });
+        HudMessenger hudMessenger = messenger;
+        if (isConnected() && hudMessenger != null) {
+            hudMessenger.toggleVisibility();
+            return;
+        }
+
+        PENDING.addToggle();
+        ensureConnected(ctx);
     }
 
     /**
@@ -136,8 +316,7 @@ public final class HudManager {
      */
     @RequiresPermission(Manifest.permission.SYSTEM_ALERT_WINDOW)
     public static void removeAll(Context ctx) {
-        Set<Hud> allHuds = new HashSet<>(SCHEDULED.keySet());
-        for (Hud hud : allHuds) {
+        for (Hud hud : SCHEDULED.keySet()) {
             remove(ctx, hud);
         }
     }
@@ -150,90 +329,139 @@ public final class HudManager {
      * @param hud HUD implementation.
      */
     @RequiresPermission(Manifest.permission.SYSTEM_ALERT_WINDOW)
-    public static void requestImmediateUpdate(Context ctx, final Hud hud) {
-        executeConnectionDependentAction(ctx, new Runnable() {
-            @Override
-            public void run() {
-                postUpdate(hud);
-            }
-        });
+    public static void requestImmediateUpdate(Context ctx, Hud hud) {
+        // Update must not bring removed HUD back
+        if (SCHEDULED.containsKey(hud)) {
+            executeConnectionDependentUpdate(ctx, hud, NO_DELAY);
+        }
+    }
+
+    /**
+     * Requests to update HUD no later than after given delay. Update already due earlier is
+     * kept, and periodic updates of HUD go on as before.
+     *
+     * @param ctx Context.
+     * @param hud HUD implementation.
+     * @param maxDelay Maximum delay in milliseconds.
+     */
+    static void requestUpdateWithin(Context ctx, Hud hud, long maxDelay) {
+        if (SCHEDULED.containsKey(hud)) {
+            executeConnectionDependentUpdate(ctx, hud, Math.max(maxDelay, NO_DELAY));
+        }
     }
 
     private static void connect(Context ctx) {
+        // Service returning Messenger binder is served via Messenger transport
         ctx.getApplicationContext().bindService(
-                new Intent(ctx, HudService.class),
+                new Intent(ctx, HudService.class).setAction(Const.ACTION_BIND_TYPED),
                 CONNECTION,
                 Context.BIND_AUTO_CREATE);
+    }
+
+    private static void disconnectAfterLinger(Context ctx) {
+        int linger = lingerPeriod;
+        if (linger == 0) {
+            disconnect(ctx);
+            return;
+        }
 
-        connecting = true;
+        lingerContext = ctx.getApplicationContext();
+        MAIN_HANDLER.removeCallbacks(LINGER_EXPIRATION);
+        MAIN_HANDLER.postDelayed(LINGER_EXPIRATION, linger);
     }
 
     private static void disconnect(Context ctx) {
+        if (!STATE.compareAndSet(STATE_CONNECTED, STATE_DISCONNECTED)) {
+            return;
+        }
+
         ctx.getApplicationContext().unbindService(CONNECTION);
 
         // Need to call it here too because onServiceDisconnected call can be pretty delayed, so
         // when addHUD called right after unbindService, it may happen so old messenger will
         // be reused which leads to 'java.lang.IllegalArgumentException: Service not registered'
         messenger = null;
-    }
+        SCHEDULER.setPaused(false);
 
-    private static void postUpdate(Hud hud) {
-        cancel(hud);
-        schedule(hud);
+        // HUDs added concurrently may have missed the disconnection
+        for (Hud hud : SCHEDULED.keySet()) {
+            requestImmediateUpdate(ctx, hud);
+        }
     }
 
-    private static void executeConnectionDependentAction(Context ctx, Runnable runnable) {
+    /**
+     * Schedules update of HUD, or records it to be scheduled on connection.
+     *
+     * @param delay Maximum delay of update in milliseconds or {@link #NO_DELAY} for immediate
+     *              update which restarts periodic updates.
+     */
+    private static void executeConnectionDependentUpdate(Context ctx, Hud hud, long delay) {
         if (isConnected()) {
-            runnable.run();
-        } else {
-            scheduleAction(runnable);
+            scheduleUpdate(hud, delay);
+            return;
+        }
 
-            if (!connecting) {
-                connect(ctx);
-            }
+        PENDING.addUpdate(hud, delay);
+        ensureConnected(ctx);
+    }
+
+    private static void ensureConnected(Context ctx) {
+        if (STATE.compareAndSet(STATE_DISCONNECTED, STATE_CONNECTING)) {
+            connect(ctx);
+        } else if (isConnected()) {
+            // Connection was established after action had been recorded
+            runAllPendingActions();
         }
     }
 
-    private static void scheduleAction(Runnable runnable) {
-        TO_EXECUTE_AFTER_CONNECT.add(runnable);
+    private static void scheduleUpdate(Hud hud, long delay) {
+        if (delay == NO_DELAY) {
+            schedule(hud);
+        } else {
+            SCHEDULER.requestUpdate(hud, delay, hud.getPriority(), hud.getUpdateTolerance());
+        }
+
+        // HUD removed meanwhile has either been cancelled already or is cancelled here
+        if (!SCHEDULED.containsKey(hud)) {
+            SCHEDULER.cancel(hud);
+        }
     }
 
     private static void runAllPendingActions() {
-        for (Runnable task : TO_EXECUTE_AFTER_CONNECT) {
-            task.run();
+        PENDING.runUpdates(PENDING_UPDATE_RUNNER);
+
+        HudMessenger hudMessenger = messenger;
+        if (hudMessenger != null && PENDING.takeToggle()) {
+            hudMessenger.toggleVisibility();
         }
     }
 
-    private static void clearActionQueue() {
-        TO_EXECUTE_AFTER_CONNECT.clear();
+    private static void clearPendingActions() {
+        PENDING.clear();
     }
 
     private static void schedule(Hud hud) {
-        Runnable work = new MessageWorker(messenger, hud);
-
         if (hud.getUpdatePeriod() == Hud.NO_PERIODIC_UPDATE) {
-            EXECUTOR.execute(work);
+            SCHEDULER.schedule(hud, 0, Hud.NO_PERIODIC_UPDATE, hud.getPriority(),
+                    hud.getUpdateTolerance());
         } else {
             int updateDelay = Math.max(hud.getUpdatePeriod(), Hud.MINIMUM_UPDATE_PERIOD);
-
-            ScheduledFuture future = EXECUTOR.scheduleWithFixedDelay(
-                    work, 0, updateDelay, TimeUnit.MILLISECONDS);
-            SCHEDULED.put(hud, future);
+            SCHEDULER.schedule(hud, 0, updateDelay, hud.getPriority(), hud.getUpdateTolerance());
         }
     }
 
     private static void cancel(Hud hud) {
-        ScheduledFuture future = SCHEDULED.get(hud);
-        if (future != null) {
-            future.cancel(true);
-        }
-
+        // Unregistered first, so that concurrent scheduling sees removal and undoes itself
         SCHEDULED.remove(hud);
+        SCHEDULER.cancel(hud);
     }
 
+    /**
+     * Drops all HUDs, letting them release what they hold while shown.
+     */
     private static void cancelAll() {
-        Set<Hud> allHuds = new HashSet<>(SCHEDULED.keySet());
-        for (Hud hud : allHuds) {
+        for (Hud hud : SCHEDULED.keySet()) {
+            hud.onRemoved();
             cancel(hud);
         }
     }
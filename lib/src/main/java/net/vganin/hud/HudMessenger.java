@@ -1,73 +1,483 @@
 package net.vganin.hud;
 
-import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
-import android.os.Message;
-import android.os.Messenger;
+import android.os.Process;
 import android.os.RemoteException;
-import android.support.v4.app.BundleCompat;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 final class HudMessenger {
 
     private static final String TAG = HudMessenger.class.getSimpleName();
 
-    private static class SenderRunnable implements Runnable {
-
-        Messenger messenger;
-        Message message;
+    /**
+     * Maximum size of batched updates in bytes. Binder transaction buffer is about 1 MB and it is
+     * shared by all transactions in progress of the process, so batch stays well below it.
+     */
+    private static final int MAX_BATCH_SIZE = 128 * 1024;
 
-        SenderRunnable(Messenger messenger, Message message) {
-            this.messenger = messenger;
-            this.message = message;
-        }
+    private abstract class SenderRunnable implements Runnable {
 
         @Override
         public void run() {
             try {
-                messenger.send(message);
+                send(mTransport);
             } catch (RemoteException e) {
-                Log.e(TAG, "Error during removeViews send", e);
+                Log.e(TAG, "Error during message send", e);
             }
         }
+
+        abstract void send(HudTransport transport) throws RemoteException;
+    }
+
+    private static class BatchEntry {
+
+        final Hud hud;
+
+        /**
+         * Update and its parceled size in bytes. Both may grow when older slot update is merged in.
+         */
+        HudUpdate update;
+        int size;
+
+        /**
+         * {@link System#nanoTime()} at which update was made.
+         */
+        final long time;
+
+        int sequence = Const.NO_SEQUENCE;
+
+        BatchEntry(Hud hud, HudUpdate update, int size, long time) {
+            this.hud = hud;
+            this.update = update;
+            this.size = size;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Flow control state of single HUD.
+     */
+    private static class Flow {
+
+        final Hud hud;
+
+        /**
+         * Sequence numbers of last sent and last consumed by service updates.
+         */
+        int lastSent = 0;
+        int lastConsumed = 0;
+
+        /**
+         * Update waiting for service to consume sent ones.
+         */
+        BatchEntry pending;
+
+        Flow(Hud hud) {
+            this.hud = hud;
+        }
+
+        int inFlight() {
+            return lastSent - lastConsumed;
+        }
+
+        int queued() {
+            return inFlight() + (pending != null ? 1 : 0);
+        }
     }
 
-    private Messenger mMessenger;
-    private Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushBatch();
+        }
+    };
+
+    interface Listener {
 
-    HudMessenger(IBinder target) {
-        mMessenger = new Messenger(target);
+        /**
+         * Called when overlay gets visible or invisible.
+         *
+         * @param visible Whether overlay is not toggled off and screen is on.
+         */
+        void onVisibilityChanged(boolean visible);
+
+        /**
+         * Called when service has lost state of HUD. Next update of the HUD is full one.
+         *
+         * @param token HUD token.
+         */
+        void onResyncRequired(IBinder token);
+    }
+
+    private final HudTransport.ServiceListener serviceListener =
+            new HudTransport.ServiceListener() {
+                @Override
+                public void onConsumed(IBinder token, int sequence) {
+                    HudMessenger.this.onConsumed(token, sequence);
+                }
+
+                @Override
+                public void onVisibilityChanged(boolean visible) {
+                    mListener.onVisibilityChanged(visible);
+                }
+
+                @Override
+                public void onResyncRequired(IBinder token) {
+                    synchronized (mBatch) {
+                        mFingerprints.remove(token);
+                    }
+                    mListener.onResyncRequired(token);
+                }
+            };
+
+    /**
+     * Thread all messages to the service are sent from, so that HUD traffic never competes with
+     * frames of host app main thread. Being single, it keeps messages in order.
+     */
+    private static HandlerThread sSenderThread;
+
+    private final HudTransport mTransport;
+    private final Listener mListener;
+    private final Handler mSenderHandler;
+
+    private final int mBatchWindow;
+    private final int mMaxInFlight;
+
+    /**
+     * Pending updates by HUD tokens. Guarded by itself.
+     */
+    private final Map<IBinder, BatchEntry> mBatch = new LinkedHashMap<>();
+    private int mBatchSize = 0;
+
+    /**
+     * Content hashes of last updates sent by HUD tokens, {@link HudUpdate#NO_FINGERPRINT} for
+     * updates which are never skipped as duplicates. Guarded by {@link #mBatch}.
+     */
+    private final Map<IBinder, Long> mFingerprints = new HashMap<>();
+
+    /**
+     * Flow control states by HUD tokens. Guarded by {@link #mBatch}.
+     */
+    private final Map<IBinder, Flow> mFlows = new HashMap<>();
+
+    /**
+     * Tokens of HUDs removed through this messenger and not added back. Update made concurrently
+     * with removal must not follow it, or service shows removed HUD forever. Guarded by
+     * {@link #mBatch}.
+     */
+    private final Set<IBinder> mRemoved = new HashSet<>();
+
+    /**
+     * @param target Service binder. Either {@link IHudService} or {@link android.os.Messenger}
+     *               binder.
+     * @param batchWindow Time in milliseconds updates are gathered before sending.
+     * @param maxInFlight Maximum number of updates per HUD sent but not consumed by service yet,
+     *                    zero if unlimited.
+     * @param listener Listener of service reports.
+     */
+    HudMessenger(IBinder target, int batchWindow, int maxInFlight, Listener listener) {
+        this(target, getSenderLooper(), batchWindow, maxInFlight, listener);
+    }
+
+    /**
+     * @param senderLooper Looper messages are sent and service reports are received on, rather
+     *                     than the one of shared sender thread.
+     */
+    HudMessenger(IBinder target, Looper senderLooper, int batchWindow, int maxInFlight,
+            Listener listener) {
+        mListener = listener;
+        mSenderHandler = new Handler(senderLooper);
+        mTransport = TypedTransport.isSupportedBy(target)
+                ? new TypedTransport(target, serviceListener)
+                : new MessengerTransport(target, senderLooper, serviceListener);
+        mBatchWindow = batchWindow;
+        mMaxInFlight = maxInFlight;
+    }
+
+    static synchronized Looper getSenderLooper() {
+        if (sSenderThread == null) {
+            sSenderThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            sSenderThread.start();
+        }
+        return sSenderThread.getLooper();
+    }
+
+    /**
+     * Lets HUD removed before be updated again.
+     */
+    void add(Hud hud) {
+        synchronized (mBatch) {
+            mRemoved.remove(hud.mToken);
+        }
     }
 
     void update(Hud hud) {
-        Message message = createBaseMessage(hud);
-        message.what = Const.MESSAGE_UPDATE_HUD;
-        sendSafely(message);
+        boolean full;
+        synchronized (mBatch) {
+            if (mRemoved.contains(hud.mToken)) {
+                return;
+            }
+
+            // Service knows nothing of HUD which has never been sent through this messenger
+            full = !mFingerprints.containsKey(hud.mToken);
+        }
+
+        long startTime = System.nanoTime();
+        HudUpdate update = hud.makeUpdate(full);
+        long updateTime = HudStats.micros(startTime);
+        HudStats.INSTANCE.updateTime.record(updateTime);
+
+        if (updateTime > hud.getUpdateBudget() * 1000L
+                && hud.overBudgetUpdates.incrementAndGet() == 1) {
+            Log.w(TAG, hud.getClass().getName() + " update took " + updateTime
+                    + " us, which is over its budget");
+        }
+
+        update.setPlace(hud.getGravity(), hud.getOffsetX(), hud.getOffsetY());
+
+        if (update.isEmpty()) {
+            hud.skippedUpdates.incrementAndGet();
+            return;
+        }
+
+        // The same parcel is sent, so update is written once
+        int size = update.parcel().dataSize();
+        long fingerprint = update.fingerprint();
+
+        HudStats.INSTANCE.updateSize.record(size);
+
+        BatchEntry entry = new BatchEntry(hud, update, size, System.nanoTime());
+
+        synchronized (mBatch) {
+            // HUD may have been removed while update was being made
+            if (mRemoved.contains(hud.mToken)) {
+                update.recycle();
+                return;
+            }
+
+            Long lastFingerprint = mFingerprints.put(hud.mToken, fingerprint);
+            if (fingerprint != HudUpdate.NO_FINGERPRINT
+                    && lastFingerprint != null && lastFingerprint == fingerprint) {
+                update.recycle();
+                hud.skippedUpdates.incrementAndGet();
+                return;
+            }
+
+            if (mMaxInFlight > 0) {
+                Flow flow = mFlows.get(hud.mToken);
+                if (flow == null) {
+                    flow = new Flow(hud);
+                    mFlows.put(hud.mToken, flow);
+                }
+
+                if (flow.inFlight() >= mMaxInFlight) {
+                    if (flow.pending != null) {
+                        supersede(entry, flow.pending);
+                    }
+                    flow.pending = entry;
+                    hud.queuedUpdates = flow.queued();
+                    return;
+                }
+
+                entry.sequence = ++flow.lastSent;
+                hud.queuedUpdates = flow.queued();
+            }
+
+            enqueue(entry);
+        }
     }
 
     void remove(Hud hud) {
-        Message message = createBaseMessage(hud);
-        message.what = Const.MESSAGE_REMOVE_HUD;
-        sendSafely(message);
+        final IBinder token = hud.mToken;
+
+        synchronized (mBatch) {
+            mRemoved.add(token);
+            mFingerprints.remove(token);
+            hud.queuedUpdates = 0;
+
+            BatchEntry dropped = dropFromBatch(token);
+            if (dropped != null) {
+                dropped.update.recycle();
+            }
+
+            Flow flow = mFlows.remove(token);
+            if (flow != null && flow.pending != null) {
+                flow.pending.update.recycle();
+            }
+        }
+
+        sendSafely(new SenderRunnable() {
+            @Override
+            void send(HudTransport transport) throws RemoteException {
+                transport.remove(token);
+            }
+        });
     }
 
     void toggleVisibility() {
-        Message message = new Message();
-        message.what = Const.MESSAGE_TOGGLE_VISIBILITY;
-        sendSafely(message);
+        sendSafely(new SenderRunnable() {
+            @Override
+            void send(HudTransport transport) throws RemoteException {
+                transport.toggleVisibility();
+            }
+        });
+    }
+
+    private void onConsumed(IBinder token, int sequence) {
+        synchronized (mBatch) {
+            Flow flow = mFlows.get(token);
+            if (flow == null) {
+                return;
+            }
+
+            // Service may skip reporting updates superseded by newer ones
+            flow.lastConsumed = Math.max(flow.lastConsumed, sequence);
+
+            BatchEntry pending = flow.pending;
+            if (pending != null && flow.inFlight() < mMaxInFlight) {
+                flow.pending = null;
+                pending.sequence = ++flow.lastSent;
+                enqueue(pending);
+            }
+
+            flow.hud.queuedUpdates = flow.queued();
+        }
+    }
+
+    /**
+     * Puts update to the batch. Must be called with {@link #mBatch} lock held.
+     */
+    private void enqueue(final BatchEntry entry) {
+        Hud hud = entry.hud;
+
+        hud.sentUpdates.incrementAndGet();
+
+        BatchEntry dropped = dropFromBatch(hud.mToken);
+        if (dropped != null) {
+            // Replaced update has never left the batch
+            hud.sentUpdates.decrementAndGet();
+            supersede(entry, dropped);
+        }
+
+        if (entry.size > MAX_BATCH_SIZE) {
+            // Too big to share a transaction with anything else
+            sendSafely(new SenderRunnable() {
+                @Override
+                void send(HudTransport transport) throws RemoteException {
+                    HudStats.INSTANCE.sendDelay.record(HudStats.micros(entry.time));
+                    try {
+                        transport.update(entry.hud.mToken, entry.update, entry.sequence);
+                    } finally {
+                        entry.update.recycle();
+                    }
+                }
+            });
+            return;
+        }
+
+        if (mBatchSize + entry.size > MAX_BATCH_SIZE) {
+            flushBatch();
+        }
+
+        if (mBatch.isEmpty()) {
+            mSenderHandler.postDelayed(flushRunnable, mBatchWindow);
+        }
+
+        mBatch.put(hud.mToken, entry);
+        mBatchSize += entry.size;
+    }
+
+    /**
+     * Replaces older unsent update with newer one. Delta updates carry changes only, so the
+     * older one is merged into the newer one.
+     */
+    private static void supersede(BatchEntry newer, BatchEntry older) {
+        if (newer.update.mustMergeWith(older.update)) {
+            HudUpdate merged = newer.update.mergeWith(older.update);
+            if (merged != newer.update) {
+                newer.update.recycle();
+                newer.update = merged;
+            }
+            newer.size += older.size;
+        }
+        older.update.recycle();
+        newer.hud.supersededUpdates.incrementAndGet();
     }
 
-    private Message createBaseMessage(Hud hud) {
-        Message message = new Message();
-        Bundle args = message.getData();
-        BundleCompat.putBinder(args, Const.EXTRA_TOKEN, hud.mToken);
-        args.putParcelable(Const.EXTRA_MESSAGE, hud.getUpdate());
-        return message;
+    /**
+     * Sends all pending updates in one message.
+     */
+    private void flushBatch() {
+        final List<IBinder> tokens;
+        final List<HudUpdate> updates;
+        final int[] sequences;
+        final long[] times;
+
+        synchronized (mBatch) {
+            mSenderHandler.removeCallbacks(flushRunnable);
+
+            if (mBatch.isEmpty()) {
+                return;
+            }
+
+            tokens = new ArrayList<>(mBatch.size());
+            updates = new ArrayList<>(mBatch.size());
+            sequences = new int[mBatch.size()];
+            times = new long[mBatch.size()];
+
+            for (BatchEntry entry : mBatch.values()) {
+                sequences[tokens.size()] = entry.sequence;
+                times[tokens.size()] = entry.time;
+                tokens.add(entry.hud.mToken);
+                updates.add(entry.update);
+            }
+
+            mBatch.clear();
+            mBatchSize = 0;
+        }
+
+        sendSafely(new SenderRunnable() {
+            @Override
+            void send(HudTransport transport) throws RemoteException {
+                for (long time : times) {
+                    HudStats.INSTANCE.sendDelay.record(HudStats.micros(time));
+                }
+
+                try {
+                    if (tokens.size() == 1) {
+                        transport.update(tokens.get(0), updates.get(0), sequences[0]);
+                    } else {
+                        transport.updateBatch(tokens, updates, sequences);
+                    }
+                } finally {
+                    for (HudUpdate update : updates) {
+                        update.recycle();
+                    }
+                }
+            }
+        });
+    }
+
+    private BatchEntry dropFromBatch(IBinder token) {
+        BatchEntry entry = mBatch.remove(token);
+        if (entry != null) {
+            mBatchSize -= entry.size;
+        }
+        return entry;
     }
 
-    private void sendSafely(Message message) {
-        mMainHandler.post(new SenderRunnable(mMessenger, message));
+    private void sendSafely(Runnable sender) {
+        mSenderHandler.post(sender);
     }
 }
@@ -0,0 +1,580 @@
+package net.vganin.hud;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timer wheel which asks HUDs for updates.
+ * <p>
+ * Time is split into ticks of {@link #TICK} milliseconds. Every scheduled HUD sits in the bucket
+ * of the tick it is due at, so all HUDs due at the same tick are collected in one pass on the
+ * scheduler thread. Each HUD owns single wheel node for its whole lifetime, so rescheduling does
+ * not allocate.
+ * <p>
+ * HUDs collected in one pass are updated in order of priority, then earliest deadline first, where
+ * deadline is the tick HUD got due at plus its tolerance. When updates start later than their
+ * tolerance, scheduler sheds load by stretching periods of low priority HUDs, then of normal
+ * priority ones, and restores periods once updates are on time again. Periods of critical HUDs
+ * are never stretched.
+ */
+final class HudScheduler {
+
+    private static final String TAG = HudScheduler.class.getSimpleName();
+
+    interface Callback {
+
+        /**
+         * Called on the scheduler thread when HUD is due for update.
+         *
+         * @param hud HUD to update.
+         */
+        void onDue(Hud hud);
+    }
+
+    /**
+     * Source of time scheduler runs by.
+     */
+    interface Clock {
+
+        /**
+         * @return Current time in nanoseconds, same as {@link System#nanoTime()} is in.
+         */
+        long nanoTime();
+    }
+
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * Tick duration in milliseconds.
+     */
+    static final int TICK = 10;
+
+    private static final int WHEEL_SIZE = 512;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    private static final long NO_PERIOD = -1;
+    private static final long NO_DEADLINE = -1;
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_QUEUED = 1;
+    private static final int STATE_RUNNING = 2;
+
+    /**
+     * Each level doubles periods of low priority HUDs. Levels above
+     * {@link #NORMAL_PRIORITY_SHED_LEVEL} double periods of normal priority HUDs as well.
+     */
+    static final int MAX_SHED_LEVEL = 4;
+    static final int NORMAL_PRIORITY_SHED_LEVEL = 2;
+
+    /**
+     * Number of passes without late updates after which shed level is lowered.
+     */
+    static final int RECOVERY_PASSES = 10;
+
+    /**
+     * Orders tasks by priority, then by the tick they must start by.
+     */
+    private static final Comparator<Task> URGENCY = new Comparator<Task>() {
+        @Override
+        public int compare(Task lhs, Task rhs) {
+            if (lhs.priority != rhs.priority) {
+                return lhs.priority > rhs.priority ? -1 : 1;
+            }
+            long lhsLatest = lhs.dueTick + lhs.tolerance;
+            long rhsLatest = rhs.dueTick + rhs.tolerance;
+            return lhsLatest < rhsLatest ? -1 : lhsLatest == rhsLatest ? 0 : 1;
+        }
+    };
+
+    private static final class Task {
+
+        final Hud hud;
+
+        /**
+         * Period in ticks or {@link #NO_PERIOD} for single update.
+         */
+        long period;
+
+        /**
+         * Tick at which task is due.
+         */
+        long deadline;
+
+        /**
+         * {@link #deadline} task was collected at. Accessed by scheduler thread only.
+         */
+        long dueTick;
+
+        /**
+         * One of {@code Hud.PRIORITY_*} values.
+         */
+        int priority;
+
+        /**
+         * Ticks update may start after {@link #dueTick} without overloading scheduler.
+         */
+        long tolerance;
+
+        int state = STATE_IDLE;
+
+        /**
+         * Whether task was rescheduled or cancelled while running.
+         */
+        boolean rescheduled;
+        boolean cancelled;
+
+        Task previous;
+        Task next;
+
+        Task(Hud hud) {
+            this.hud = hud;
+        }
+    }
+
+    private final Object lock = new Object();
+
+    /**
+     * Heads of bucket lists. Guarded by {@link #lock}.
+     */
+    private final Task[] wheel = new Task[WHEEL_SIZE];
+
+    /**
+     * Tasks by HUDs. Guarded by {@link #lock}.
+     */
+    private final Map<Hud, Task> tasks = new HashMap<>();
+
+    /**
+     * Tasks collected in current pass. Accessed by scheduler thread only.
+     */
+    private final List<Task> due = new ArrayList<>();
+
+    private final Callback callback;
+    private final Clock clock;
+
+    private final long startTime;
+
+    /**
+     * Last processed tick. Guarded by {@link #lock}.
+     */
+    private long currentTick = 0;
+
+    /**
+     * Number of ticks periods and deadlines are snapped to. Guarded by {@link #lock}.
+     */
+    private long quantum = 1;
+
+    /**
+     * Whether due HUDs are held until resumed. Guarded by {@link #lock}.
+     */
+    private boolean paused = false;
+
+    /**
+     * Whether lateness of next pass is caused by pause rather than load. Guarded by
+     * {@link #lock}.
+     */
+    private boolean resumed = false;
+
+    /**
+     * Current load shedding level from 0 to {@link #MAX_SHED_LEVEL} and number of passes without
+     * late updates at it. Guarded by {@link #lock}.
+     */
+    private int shedLevel = 0;
+    private int onTimePasses = 0;
+
+    private Thread thread;
+
+    HudScheduler(Callback callback) {
+        this(callback, SYSTEM_CLOCK);
+    }
+
+    HudScheduler(Callback callback, Clock clock) {
+        this.callback = callback;
+        this.clock = clock;
+        this.startTime = clock.nanoTime();
+    }
+
+    /**
+     * Makes periodic updates happen at multiples of given quantum so that HUDs with close periods
+     * are collected in the same pass. Affects subsequent scheduling only.
+     *
+     * @param millis Quantum in milliseconds, zero to disable snapping.
+     */
+    void setQuantum(int millis) {
+        synchronized (lock) {
+            quantum = Math.max(toTicks(millis), 1);
+        }
+    }
+
+    /**
+     * Pauses or resumes updates. While paused, scheduler thread sleeps, and HUDs which got due are
+     * updated once on resume.
+     *
+     * @param paused Whether to pause.
+     */
+    void setPaused(boolean paused) {
+        synchronized (lock) {
+            resumed |= this.paused && !paused;
+            this.paused = paused;
+            lock.notify();
+        }
+    }
+
+    /**
+     * Schedules HUD for update. If HUD is already scheduled, its deadline and period are changed.
+     *
+     * @param hud HUD to update.
+     * @param delay Delay of first update in milliseconds.
+     * @param period Period of consequent updates in milliseconds or
+     *               {@link Hud#NO_PERIODIC_UPDATE} for single update.
+     * @param priority One of {@code Hud.PRIORITY_*} values.
+     * @param tolerance Time in milliseconds update may start late by.
+     */
+    void schedule(Hud hud, long delay, long period, int priority, long tolerance) {
+        synchronized (lock) {
+            Task task = tasks.get(hud);
+            if (task == null) {
+                task = new Task(hud);
+                tasks.put(hud, task);
+            }
+
+            task.period = period == Hud.NO_PERIODIC_UPDATE ? NO_PERIOD : snap(toTicks(period));
+            task.priority = priority;
+            task.tolerance = Math.max(toTicks(tolerance), 1);
+            long deadline = nowTick() + toTicks(delay);
+
+            if (task.state == STATE_RUNNING) {
+                task.deadline = deadline;
+                task.rescheduled = true;
+            } else {
+                if (task.state == STATE_QUEUED) {
+                    unlink(task);
+                }
+                task.deadline = deadline;
+                link(task);
+            }
+
+            startIfNeeded();
+            lock.notify();
+        }
+    }
+
+    /**
+     * Makes HUD due no later than after given delay. Deadline of already scheduled HUD is only
+     * moved earlier, and its period is kept. HUD which is not scheduled is updated once.
+     *
+     * @param hud HUD to update.
+     * @param delay Maximum delay of update in milliseconds.
+     * @param priority One of {@code Hud.PRIORITY_*} values.
+     * @param tolerance Time in milliseconds update may start late by.
+     */
+    void requestUpdate(Hud hud, long delay, int priority, long tolerance) {
+        synchronized (lock) {
+            Task task = tasks.get(hud);
+            if (task == null) {
+                schedule(hud, delay, Hud.NO_PERIODIC_UPDATE, priority, tolerance);
+                return;
+            }
+
+            task.priority = priority;
+            task.tolerance = Math.max(toTicks(tolerance), 1);
+            long deadline = nowTick() + toTicks(delay);
+
+            if (task.state == STATE_RUNNING) {
+                if (task.rescheduled) {
+                    task.deadline = Math.min(task.deadline, deadline);
+                } else {
+                    task.deadline = task.period == NO_PERIOD
+                            ? deadline : Math.min(nextPeriodicDeadline(task), deadline);
+                    task.rescheduled = true;
+                }
+            } else if (deadline < task.deadline) {
+                unlink(task);
+                task.deadline = deadline;
+                link(task);
+                lock.notify();
+            }
+        }
+    }
+
+    /**
+     * Stops updating HUD.
+     *
+     * @param hud HUD to stop updating.
+     */
+    void cancel(Hud hud) {
+        synchronized (lock) {
+            Task task = tasks.remove(hud);
+            if (task == null) {
+                return;
+            }
+
+            if (task.state == STATE_QUEUED) {
+                unlink(task);
+                task.state = STATE_IDLE;
+            } else if (task.state == STATE_RUNNING) {
+                task.cancelled = true;
+            }
+        }
+    }
+
+    /**
+     * Stops scheduler thread and waits for it to finish. Scheduler thread is started again by
+     * subsequent scheduling.
+     */
+    void stop() throws InterruptedException {
+        Thread stopped;
+        synchronized (lock) {
+            stopped = thread;
+            thread = null;
+        }
+
+        if (stopped != null) {
+            stopped.interrupt();
+            stopped.join();
+        }
+    }
+
+    private void startIfNeeded() {
+        if (thread == null) {
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    loop();
+                }
+            }, TAG);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void loop() {
+        while (true) {
+            synchronized (lock) {
+                try {
+                    awaitDue();
+                } catch (InterruptedException e) {
+                    if (thread == Thread.currentThread()) {
+                        Log.e(TAG, "Scheduler thread interrupted", e);
+                    }
+                    return;
+                }
+            }
+
+            runDue();
+        }
+    }
+
+    /**
+     * Updates HUDs due by now on calling thread. Called by scheduler thread, or by tests which
+     * keep scheduler paused and drive its clock.
+     */
+    void runDue() {
+        synchronized (lock) {
+            collectDue(nowTick());
+        }
+
+        if (due.isEmpty()) {
+            return;
+        }
+
+        Collections.sort(due, URGENCY);
+
+        boolean overloaded = false;
+        for (Task task : due) {
+            long lateness = elapsedMicros() - task.dueTick * TICK * 1000;
+            overloaded |= lateness > task.tolerance * TICK * 1000;
+            HudStats.INSTANCE.updateLateness.record(lateness);
+
+            try {
+                callback.onDue(task.hud);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error during HUD update", e);
+            }
+        }
+
+        synchronized (lock) {
+            updateShedLevel(overloaded);
+
+            for (Task task : due) {
+                finish(task);
+            }
+        }
+
+        due.clear();
+    }
+
+    /**
+     * Blocks until the nearest non-empty bucket is due.
+     */
+    private void awaitDue() throws InterruptedException {
+        while (true) {
+            if (paused) {
+                lock.wait();
+                continue;
+            }
+
+            long nextDeadline = nextDeadline();
+
+            if (nextDeadline == NO_DEADLINE) {
+                // Nothing scheduled, just keep up with time
+                currentTick = nowTick();
+                lock.wait();
+            } else {
+                long delay = nextDeadline * TICK - elapsedMillis();
+                if (delay <= 0) {
+                    return;
+                }
+                lock.wait(delay);
+            }
+        }
+    }
+
+    /**
+     * Gets the nearest tick whose bucket is not empty. Tasks of that bucket may still be due at
+     * later wheel rounds.
+     */
+    private long nextDeadline() {
+        for (long tick = currentTick + 1; tick <= currentTick + WHEEL_SIZE; tick++) {
+            if (wheel[(int) (tick & WHEEL_MASK)] != null) {
+                return tick;
+            }
+        }
+        return NO_DEADLINE;
+    }
+
+    private void collectDue(long now) {
+        long last = Math.min(now, currentTick + WHEEL_SIZE);
+
+        for (long tick = currentTick + 1; tick <= last; tick++) {
+            Task task = wheel[(int) (tick & WHEEL_MASK)];
+            while (task != null) {
+                Task next = task.next;
+                if (task.deadline <= now) {
+                    unlink(task);
+                    task.dueTick = task.deadline;
+                    task.state = STATE_RUNNING;
+                    due.add(task);
+                }
+                task = next;
+            }
+        }
+
+        currentTick = now;
+    }
+
+    private void finish(Task task) {
+        if (task.cancelled) {
+            task.cancelled = false;
+            task.rescheduled = false;
+            task.state = STATE_IDLE;
+        } else if (task.rescheduled) {
+            task.rescheduled = false;
+            link(task);
+        } else if (task.period != NO_PERIOD) {
+            task.deadline = nextPeriodicDeadline(task);
+            link(task);
+        } else {
+            task.state = STATE_IDLE;
+            tasks.remove(task.hud);
+        }
+    }
+
+    private void updateShedLevel(boolean overloaded) {
+        if (resumed) {
+            // HUDs got due while paused
+            resumed = false;
+            return;
+        }
+
+        if (overloaded) {
+            onTimePasses = 0;
+            if (shedLevel < MAX_SHED_LEVEL) {
+                shedLevel++;
+                Log.w(TAG, "Updates are late, load shedding level raised to " + shedLevel);
+            }
+        } else if (shedLevel > 0 && ++onTimePasses >= RECOVERY_PASSES) {
+            onTimePasses = 0;
+            shedLevel--;
+        }
+    }
+
+    private long nextPeriodicDeadline(Task task) {
+        return snap(nowTick() + task.period * stretchOf(task.priority));
+    }
+
+    /**
+     * Gets factor periods of HUDs of given priority are multiplied by at current shed level.
+     */
+    private long stretchOf(int priority) {
+        switch (priority) {
+            case Hud.PRIORITY_CRITICAL:
+                return 1;
+            case Hud.PRIORITY_LOW:
+                return 1L << shedLevel;
+            default:
+                return 1L << Math.max(shedLevel - NORMAL_PRIORITY_SHED_LEVEL, 0);
+        }
+    }
+
+    private void link(Task task) {
+        // Buckets up to current tick have already been processed
+        task.deadline = Math.max(task.deadline, currentTick + 1);
+
+        int bucket = (int) (task.deadline & WHEEL_MASK);
+        task.previous = null;
+        task.next = wheel[bucket];
+        if (task.next != null) {
+            task.next.previous = task;
+        }
+        wheel[bucket] = task;
+
+        task.state = STATE_QUEUED;
+    }
+
+    private void unlink(Task task) {
+        if (task.previous != null) {
+            task.previous.next = task.next;
+        } else {
+            wheel[(int) (task.deadline & WHEEL_MASK)] = task.next;
+        }
+
+        if (task.next != null) {
+            task.next.previous = task.previous;
+        }
+
+        task.previous = null;
+        task.next = null;
+    }
+
+    private long snap(long ticks) {
+        return (ticks + quantum - 1) / quantum * quantum;
+    }
+
+    private long nowTick() {
+        return elapsedMillis() / TICK;
+    }
+
+    private long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(clock.nanoTime() - startTime);
+    }
+
+    private long elapsedMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(clock.nanoTime() - startTime);
+    }
+
+    private static long toTicks(long millis) {
+        return (millis + TICK - 1) / TICK;
+    }
+}
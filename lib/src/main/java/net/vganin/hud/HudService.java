@@ -1,27 +1,49 @@
 package net.vganin.hud;
 
+import android.annotation.TargetApi;
 import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.PixelFormat;
+import android.os.Binder;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.PowerManager;
+import android.os.Process;
 import android.os.RemoteException;
 import android.provider.Settings;
 import android.support.v4.app.BundleCompat;
 import android.util.Log;
-import android.view.Gravity;
+import android.util.SparseArray;
+import android.view.Choreographer;
 import android.view.View;
 import android.view.WindowManager;
+import android.widget.ImageView;
 import android.widget.LinearLayout;
+import android.widget.ProgressBar;
 import android.widget.RemoteViews;
+import android.widget.TextView;
 
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Service for displaying HUD entries.
@@ -36,57 +58,323 @@ import java.util.Map;
  */
 public final class HudService extends Service {
 
+    /**
+     * Boolean {@code meta-data} key. If set to {@code true}, overlay is updated at most once per
+     * display frame with the latest content of every changed HUD, no matter how many updates came
+     * in between. Takes effect on Android >= 4.1 (SDK >= 16). Disabled by default.
+     */
+    public static final String META_FRAME_SYNC = "net.vganin.hud.FRAME_SYNC";
+
+    /**
+     * Integer {@code meta-data} key. Time in milliseconds single overlay update may take. HUDs
+     * which did not fit are updated next time (next frame if {@link #META_FRAME_SYNC} is
+     * enabled). Zero (default) means no limit.
+     */
+    public static final String META_FRAME_BUDGET = "net.vganin.hud.FRAME_BUDGET";
+
+    /**
+     * Integer {@code meta-data} key. Number of HUD updates per second service applies for single
+     * client app. Updates beyond it wait, newer updates of the same HUD replacing older ones, so
+     * one chatty client can't starve others. Zero (default) means no limit.
+     */
+    public static final String META_CLIENT_UPDATE_RATE = "net.vganin.hud.CLIENT_UPDATE_RATE";
+
+    /**
+     * Integer {@code meta-data} key. Size in kilobytes of bitmaps set by
+     * {@link SlotHud.Slots#setBitmap(int, android.graphics.Bitmap)} service keeps after no HUD
+     * shows them, so that clients need not send them again. 4096 by default.
+     */
+    public static final String META_BITMAP_CACHE_SIZE = "net.vganin.hud.BITMAP_CACHE_SIZE";
+
+    /**
+     * Boolean {@code meta-data} key. If set to {@code true}, overlay window is owned by dedicated
+     * thread which also receives and applies all updates, so that none of this work runs on main
+     * thread of the process hosting the service. Disabled by default.
+     */
+    public static final String META_RENDER_THREAD = "net.vganin.hud.RENDER_THREAD";
+
     private static final String TAG = HudService.class.getSimpleName();
 
+    private static final long NO_RETRY = -1;
+
+    private static final int MAX_POOLED_VIEWS_PER_LAYOUT = 4;
+
+    /**
+     * Client app of the service, identified by UID. Limits rate at which its updates are applied
+     * with token bucket holding up to one second worth of updates.
+     */
+    private static final class ClientAccount {
+
+        private static final int UNKNOWN_UID = -1;
+
+        private final int uid;
+        private final int rate;
+
+        private double tokens;
+        private long refillTime = System.nanoTime();
+
+        /**
+         * Number of entries updated by client last.
+         */
+        private int entryCount = 0;
+
+        /**
+         * Dirty entries of client collected for current overlay update, in overlay order.
+         */
+        private final List<IncomingHandler.DeathAwareView> pending = new ArrayList<>();
+
+        /**
+         * @param rate Updates per second, zero if unlimited.
+         */
+        private ClientAccount(int uid, int rate) {
+            this.uid = uid;
+            this.rate = rate;
+            this.tokens = rate;
+        }
+
+        private boolean tryAcquire(long now) {
+            if (rate == 0) {
+                return true;
+            }
+
+            tokens = Math.min(tokens + (now - refillTime) * rate / 1e9, rate);
+            refillTime = now;
+
+            if (tokens >= 1) {
+                tokens--;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Gets time in milliseconds after which {@link #tryAcquire(long)} succeeds.
+         */
+        private long millisUntilAvailable() {
+            return (long) Math.ceil((1 - tokens) * 1000 / rate);
+        }
+    }
+
     private static class IncomingHandler extends Handler {
 
         private final class DeathAwareView implements IBinder.DeathRecipient {
 
             public final IBinder token;
-            public RemoteViews remoteView;
+
+            /**
+             * Position of entry in overlay order, which is the order entries were added in.
+             */
+            public final long order;
+
+            public HudUpdate update;
+
+            /**
+             * View inflated for {@link #update}. Kept between updates so that consequent
+             * updates are reapplied to it instead of inflating new one.
+             */
+            public View view;
+
+            /**
+             * Package and layout which {@link #view} was inflated from.
+             */
+            public String viewPackage;
+            public int viewLayoutId;
+
+            /**
+             * Whether text of entry is drawn by {@link TextOverlayView} instead of {@link #view}.
+             */
+            public boolean textDrawn;
+
+            /**
+             * Region {@link #view} or text is shown in, {@code null} if neither is shown.
+             */
+            public Region region;
+
+            /**
+             * Descendants of {@link #view} by ids of slots they show.
+             */
+            public final SparseArray<View> slotViews = new SparseArray<>();
+
+            /**
+             * Ids of cached bitmaps by ids of slots showing them.
+             */
+            public final SparseArray<Long> slotBitmapIds = new SparseArray<>();
+
+            /**
+             * Whether client has been asked for full update and has not sent it yet.
+             */
+            public boolean resyncRequested;
+
+            /**
+             * Whether {@link #update} has changed since it was last applied to {@link #view}.
+             */
+            public boolean dirty;
+
+            /**
+             * Sequence number of {@link #update} and client to report its consumption to.
+             * The latter is {@code null} if client does not need reports.
+             */
+            public int sequence;
+            public ClientProxy client;
+
+            /**
+             * Client which sent {@link #update}, {@code null} if it can't be replied to.
+             */
+            public ClientProxy sender;
+
+            /**
+             * Client app which made {@link #update}.
+             */
+            public ClientAccount account;
+
+            /**
+             * Whether {@link #update} has been held back by client quota.
+             */
+            public boolean throttled;
+
+            /**
+             * {@link System#nanoTime()} at which {@link #update} was received.
+             */
+            public long updateTime;
 
             public DeathAwareView(IBinder token) {
                 this.token = token;
+                this.order = nextOrder++;
             }
 
-            public void update(RemoteViews remoteView) {
-                this.remoteView = remoteView;
+            public void update(HudUpdate update, int sequence, ClientProxy client,
+                    ClientAccount account) {
+                if (dirty && this.update != null && update.mustMergeWith(this.update)) {
+                    // Previous delta hasn't been applied yet
+                    update = update.mergeWith(this.update);
+                }
+
+                this.update = update;
+                this.dirty = true;
+                this.sequence = sequence;
+                this.client = sequence != Const.NO_SEQUENCE ? client : null;
+                this.sender = client;
+                this.updateTime = System.nanoTime();
+                this.throttled = false;
+
+                if (this.account != account) {
+                    if (this.account != null) {
+                        release(this.account);
+                    }
+                    account.entryCount++;
+                    this.account = account;
+                }
             }
 
+            public boolean isInflatedFrom(String layoutPackage, int layoutId) {
+                return viewLayoutId == layoutId && layoutPackage.equals(viewPackage);
+            }
+
+            /**
+             * Called on binder thread, so entry is removed later on handler thread.
+             */
             @Override
             public void binderDied() {
-                remoteViews.remove(token);
-                invokeOnUpdateSafely();
+                deadTokens.add(token);
+                if (deathCleanupPosted.compareAndSet(false, true)) {
+                    post(deathCleanup);
+                }
             }
         }
 
+        /**
+         * Entries by HUD tokens, in overlay order. Accessed on handler thread only.
+         */
         private final Map<IBinder, DeathAwareView> remoteViews = new LinkedHashMap<>();
 
+        /**
+         * {@link DeathAwareView#order} of the next entry added.
+         */
+        private long nextOrder;
+
+        /**
+         * Tokens of dead HUDs whose entries are to be removed. When client process with many HUDs
+         * dies, all of them are removed at once and overlay is updated once.
+         */
+        private final Queue<IBinder> deadTokens = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean deathCleanupPosted = new AtomicBoolean();
+
+        private final Runnable deathCleanup = new Runnable() {
+            @Override
+            public void run() {
+                deathCleanupPosted.set(false);
+
+                IBinder token;
+                while ((token = deadTokens.poll()) != null) {
+                    detach(remoteViews.remove(token));
+                }
+
+                invokeOnUpdateSafely();
+            }
+        };
+
+        /**
+         * Client apps having entries, by UIDs and in round-robin order.
+         */
+        private final Map<Integer, ClientAccount> accounts = new HashMap<>();
+        private final List<ClientAccount> accountOrder = new ArrayList<>();
+
+        private final int clientUpdateRate;
+
+        /**
+         * Clients requiring consumption reports by their binders.
+         */
+        private final Map<IBinder, ClientProxy> clients = new HashMap<>();
+
+        /**
+         * Removed entries whose views are still attached to overlay.
+         */
+        private final List<DeathAwareView> detached = new LinkedList<>();
+
         private final Runnable onUpdateCallback;
 
         private boolean viewsAreShown = true;
+        private boolean screenOn = true;
+
+        /**
+         * Overlay visibility clients were last told of.
+         */
+        private boolean reportedVisible = true;
 
-        private IncomingHandler(Runnable onUpdateCallback) {
+        private IncomingHandler(Looper looper, Runnable onUpdateCallback, int clientUpdateRate) {
+            super(looper);
             this.onUpdateCallback = onUpdateCallback;
+            this.clientUpdateRate = clientUpdateRate;
         }
 
         @Override
         public void handleMessage(Message msg) {
             Bundle args = msg.getData();
+            args.setClassLoader(HudUpdate.class.getClassLoader());
             IBinder token = BundleCompat.getBinder(args, Const.EXTRA_TOKEN);
 
+            // Sender is unknown on older platforms, so all such clients share single account
+            int uid = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP_MR1
+                    ? msg.sendingUid : ClientAccount.UNKNOWN_UID;
+
             switch (msg.what) {
                 case Const.MESSAGE_UPDATE_HUD:
-                    if (token != null && token.isBinderAlive()) {
-                        RemoteViews remoteViews = msg.getData().getParcelable(Const.EXTRA_MESSAGE);
-                        update(token, remoteViews);
+                    update(args, clientOf(msg.replyTo), uid);
+                    break;
+                case Const.MESSAGE_UPDATE_BATCH:
+                    List<Bundle> batch = args.getParcelableArrayList(Const.EXTRA_BATCH);
+                    if (batch != null) {
+                        ClientProxy client = clientOf(msg.replyTo);
+                        for (Bundle updateArgs : batch) {
+                            update(updateArgs, client, uid);
+                        }
                     }
                     break;
                 case Const.MESSAGE_REMOVE_HUD:
                     remove(token);
                     break;
                 case Const.MESSAGE_TOGGLE_VISIBILITY:
-                    viewsAreShown = !viewsAreShown;
+                    toggleVisibility();
                     break;
             }
 
@@ -98,7 +386,48 @@ public final class HudService extends Service {
             post(onUpdateCallback);
         }
 
-        private void update(IBinder token, RemoteViews remoteView) {
+        private void toggleVisibility() {
+            viewsAreShown = !viewsAreShown;
+            reportVisibility();
+        }
+
+        private void setScreenOn(boolean screenOn) {
+            this.screenOn = screenOn;
+            reportVisibility();
+        }
+
+        private boolean isVisible() {
+            return viewsAreShown && screenOn;
+        }
+
+        /**
+         * Tells all clients of overlay visibility if it has changed, so that they don't make
+         * updates nobody sees.
+         */
+        private void reportVisibility() {
+            boolean visible = isVisible();
+            if (visible != reportedVisible) {
+                reportedVisible = visible;
+                for (ClientProxy client : clients.values()) {
+                    client.reportVisibility(visible);
+                }
+            }
+        }
+
+        private void update(Bundle args, ClientProxy client, int uid) {
+            args.setClassLoader(HudUpdate.class.getClassLoader());
+            IBinder token = BundleCompat.getBinder(args, Const.EXTRA_TOKEN);
+            HudUpdate update = args.getParcelable(Const.EXTRA_MESSAGE);
+            int sequence = args.getInt(Const.EXTRA_SEQUENCE, Const.NO_SEQUENCE);
+            update(token, update, sequence, client, uid);
+        }
+
+        private void update(IBinder token, HudUpdate update, int sequence,
+                ClientProxy client, int uid) {
+            if (token == null || update == null || !token.isBinderAlive()) {
+                return;
+            }
+
             DeathAwareView deathAwareMsg;
 
             if (this.remoteViews.containsKey(token)) {
@@ -115,78 +444,920 @@ public final class HudService extends Service {
                 }
             }
 
-            deathAwareMsg.update(remoteView);
+            deathAwareMsg.update(update, sequence, client, accountOf(uid));
+        }
+
+        private ClientAccount accountOf(int uid) {
+            ClientAccount account = accounts.get(uid);
+            if (account == null) {
+                account = new ClientAccount(uid, clientUpdateRate);
+                accounts.put(uid, account);
+                accountOrder.add(account);
+            }
+            return account;
+        }
+
+        private void release(ClientAccount account) {
+            if (--account.entryCount == 0) {
+                accounts.remove(account.uid);
+                accountOrder.remove(account);
+            }
         }
 
         private void remove(IBinder token) {
             if (remoteViews.containsKey(token)) {
                 DeathAwareView deathAwareMsg = remoteViews.get(token);
                 token.unlinkToDeath(deathAwareMsg, 0);
-                remoteViews.remove(token);
+                detach(remoteViews.remove(token));
+            }
+        }
+
+        private void detach(DeathAwareView deathAwareMsg) {
+            if (deathAwareMsg != null && deathAwareMsg.account != null) {
+                release(deathAwareMsg.account);
+                deathAwareMsg.account = null;
+            }
+
+            if (deathAwareMsg != null
+                    && (deathAwareMsg.view != null || deathAwareMsg.textDrawn)) {
+                detached.add(deathAwareMsg);
+            }
+        }
+
+        private ClientProxy clientOf(Messenger messenger) {
+            if (messenger == null) {
+                return null;
+            }
+
+            ClientProxy client = clients.get(messenger.getBinder());
+            return client != null ? client : register(ClientProxy.of(messenger));
+        }
+
+        private ClientProxy clientOf(IHudClient hudClient) {
+            if (hudClient == null) {
+                return null;
+            }
+
+            ClientProxy client = clients.get(hudClient.asBinder());
+            return client != null ? client : register(ClientProxy.of(hudClient));
+        }
+
+        private ClientProxy register(final ClientProxy client) {
+            final IBinder binder = client.asBinder();
+
+            clients.put(binder, client);
+
+            if (!reportedVisible) {
+                client.reportVisibility(false);
+            }
+
+            try {
+                binder.linkToDeath(new IBinder.DeathRecipient() {
+                    @Override
+                    public void binderDied() {
+                        post(new Runnable() {
+                            @Override
+                            public void run() {
+                                clients.remove(binder);
+                            }
+                        });
+                    }
+                }, 0);
+            } catch (RemoteException e) {
+                Log.e(TAG, "Error during linkToDeath", e);
+            }
+
+            return client;
+        }
+    }
+
+    /**
+     * Overlay root which records layout cost of its window and of every HUD view.
+     */
+    private static final class OverlayLayout extends LinearLayout {
+
+        private OverlayLayout(Context ctx) {
+            super(ctx);
+        }
+
+        @Override
+        protected void dispatchDraw(Canvas canvas) {
+            super.dispatchDraw(canvas);
+            if (getChildCount() > 0) {
+                HudStats.INSTANCE.startupFinished();
+            }
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            long startTime = System.nanoTime();
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+            HudStats.INSTANCE.windowLayoutTime.record(HudStats.micros(startTime));
+        }
+
+        @Override
+        protected void measureChildWithMargins(View child, int parentWidthMeasureSpec,
+                int widthUsed, int parentHeightMeasureSpec, int heightUsed) {
+            long startTime = System.nanoTime();
+            super.measureChildWithMargins(child, parentWidthMeasureSpec, widthUsed,
+                    parentHeightMeasureSpec, heightUsed);
+            HudStats.INSTANCE.layoutTime.record(HudStats.micros(startTime));
+        }
+    }
+
+    /**
+     * Overlay window showing HUDs of the same place one under another. Each region is laid out on
+     * its own, so changes of HUDs in one region don't remeasure HUDs of others.
+     */
+    private static final class Region {
+
+        private final int gravity;
+        private final int offsetX;
+        private final int offsetY;
+
+        private final LinearLayout root;
+
+        /**
+         * Child of {@link #root} drawing canvas rendered HUDs. Created when first of them is
+         * shown.
+         */
+        private TextOverlayView textOverlay;
+
+        /**
+         * Entries whose views are children of {@link #root}, in overlay order, so that position
+         * of entry view is found without walking all entries.
+         */
+        private final List<IncomingHandler.DeathAwareView> shown = new ArrayList<>();
+
+        private Region(Context ctx, int gravity, int offsetX, int offsetY) {
+            this.gravity = gravity;
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+
+            root = new OverlayLayout(ctx);
+            root.setOrientation(LinearLayout.VERTICAL);
+        }
+
+        private boolean isAt(int gravity, int offsetX, int offsetY) {
+            return this.gravity == gravity && this.offsetX == offsetX && this.offsetY == offsetY;
+        }
+
+        /**
+         * Adds view of entry after views of entries preceding it. Text overlay is kept below
+         * them all.
+         */
+        private void addView(IncomingHandler.DeathAwareView remoteView, View view) {
+            int index = search(remoteView);
+            shown.add(index, remoteView);
+            root.addView(view, index);
+        }
+
+        private void removeView(IncomingHandler.DeathAwareView remoteView, View view) {
+            int index = search(remoteView);
+            if (index < shown.size() && shown.get(index) == remoteView) {
+                shown.remove(index);
+            }
+            root.removeView(view);
+        }
+
+        /**
+         * Gets position of entry in {@link #shown}, or position it is to be inserted at.
+         */
+        private int search(IncomingHandler.DeathAwareView remoteView) {
+            int low = 0;
+            int high = shown.size();
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (shown.get(middle).order < remoteView.order) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
             }
+            return low;
+        }
+
+        private WindowManager.LayoutParams createLayoutParams() {
+            WindowManager.LayoutParams params = new WindowManager.LayoutParams(
+                    WindowManager.LayoutParams.WRAP_CONTENT,
+                    WindowManager.LayoutParams.WRAP_CONTENT,
+                    WindowManager.LayoutParams.TYPE_SYSTEM_OVERLAY,
+                    WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE,
+                    PixelFormat.TRANSLUCENT);
+            params.gravity = gravity;
+            params.x = offsetX;
+            params.y = offsetY;
+            return params;
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static final class FrameScheduler implements Choreographer.FrameCallback {
+
+        private final Runnable frameCallback;
+
+        /**
+         * Choreographer of the thread owning overlay. Obtained on that thread.
+         */
+        private Choreographer choreographer;
+
+        private boolean scheduled = false;
+
+        private FrameScheduler(Runnable frameCallback) {
+            this.frameCallback = frameCallback;
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            scheduled = false;
+            frameCallback.run();
+        }
+
+        private void schedule() {
+            if (!scheduled) {
+                if (choreographer == null) {
+                    choreographer = Choreographer.getInstance();
+                }
+                choreographer.postFrameCallback(this);
+                scheduled = true;
+            }
+        }
+
+        private void cancel() {
+            if (choreographer != null) {
+                choreographer.removeFrameCallback(this);
+            }
+            scheduled = false;
+        }
+    }
+
+    /**
+     * {@link IHudService} implementation. Its methods are called on binder threads, so calls are
+     * handed to {@link IncomingHandler}.
+     */
+    private final class TypedBinder extends IHudService.Stub {
+
+        @Override
+        public void update(final IBinder token, final HudUpdate update, final int sequence,
+                final IHudClient client) {
+            final int uid = Binder.getCallingUid();
+            hudHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    hudHandler.update(token, update, sequence, hudHandler.clientOf(client), uid);
+                    hudHandler.invokeOnUpdateSafely();
+                }
+            });
+        }
+
+        @Override
+        public void updateBatch(final List<IBinder> tokens, final List<HudUpdate> updates,
+                final int[] sequences, final IHudClient client) {
+            final int uid = Binder.getCallingUid();
+            hudHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    ClientProxy clientProxy = hudHandler.clientOf(client);
+                    for (int i = 0; i < tokens.size(); i++) {
+                        hudHandler.update(tokens.get(i), updates.get(i), sequences[i], clientProxy,
+                                uid);
+                    }
+                    hudHandler.invokeOnUpdateSafely();
+                }
+            });
+        }
+
+        @Override
+        public void remove(final IBinder token) {
+            hudHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    hudHandler.remove(token);
+                    hudHandler.invokeOnUpdateSafely();
+                }
+            });
+        }
+
+        @Override
+        public void toggleVisibility() {
+            hudHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    hudHandler.toggleVisibility();
+                    hudHandler.invokeOnUpdateSafely();
+                }
+            });
         }
     }
 
     private class ViewUpdater implements Runnable {
 
+        private final Runnable frameCallback = new Runnable() {
+            @Override
+            public void run() {
+                update();
+            }
+        };
+
+        private final FrameScheduler frameScheduler;
+
+        private ViewUpdater() {
+            boolean frameSyncSupported =
+                    Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+            frameScheduler = config.frameSync && frameSyncSupported
+                    ? new FrameScheduler(frameCallback) : null;
+        }
+
         @Override
         public void run() {
+            if (frameScheduler != null) {
+                frameScheduler.schedule();
+            } else {
+                update();
+            }
+        }
+
+        private void update() {
             initViewSpace();
 
             if (viewSpaceInitialized) {
-                viewsUpdate();
+                long retryDelay = viewsUpdate();
                 visibilityUpdate();
+
+                if (retryDelay != NO_RETRY) {
+                    hudHandler.postDelayed(this, retryDelay);
+                }
+            }
+        }
+
+        private void cancel() {
+            if (frameScheduler != null) {
+                frameScheduler.cancel();
             }
         }
     }
 
+    private ServiceConfig config;
+
+    /**
+     * Makes {@link #config} on creation. Replaced by tests, which can't declare meta-data of
+     * service, before service is created.
+     */
+    ServiceConfig.Factory configFactory = ServiceConfig.MANIFEST;
+
     private IncomingHandler hudHandler;
+
+    /**
+     * Thread owning overlay, {@code null} if it is owned by main thread.
+     */
+    private HandlerThread renderThread;
+    private ViewUpdater viewUpdater;
     private Messenger messenger;
+    private TypedBinder typedBinder;
+
+    private WindowManager windowManager;
+
+    /**
+     * Overlay windows, the default one first.
+     */
+    private final List<Region> regions = new ArrayList<>();
 
-    private LinearLayout root;
+    /**
+     * Views of removed HUDs, to be reused by new HUDs of the same layouts.
+     */
+    private final ViewPool viewPool = new ViewPool(MAX_POOLED_VIEWS_PER_LAYOUT);
+
+    /**
+     * Bitmaps of slot HUDs, shared by all clients.
+     */
+    private BitmapCache bitmapCache;
+
+    private final BroadcastReceiver screenReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            hudHandler.setScreenOn(Intent.ACTION_SCREEN_ON.equals(intent.getAction()));
+        }
+    };
 
     private boolean viewSpaceInitialized = false;
 
     @Override
     public IBinder onBind(Intent intent) {
-        return messenger.getBinder();
+        return Const.ACTION_BIND_TYPED.equals(intent.getAction())
+                ? typedBinder : messenger.getBinder();
     }
 
     @Override
     public void onCreate() {
         super.onCreate();
 
+        config = configFactory.create(this);
+        bitmapCache = new BitmapCache(config.bitmapCacheSize);
+
         enforceSystemAlertPermission();
-        initViewSpace();
 
-        hudHandler = new IncomingHandler(new ViewUpdater());
+        Looper looper = getMainLooper();
+        if (config.renderThread) {
+            renderThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_DISPLAY);
+            renderThread.start();
+            looper = renderThread.getLooper();
+        }
+
+        viewUpdater = new ViewUpdater();
+        hudHandler = new IncomingHandler(looper, viewUpdater, config.clientUpdateRate);
         messenger = new Messenger(hudHandler);
+        typedBinder = new TypedBinder();
+
+        // Window belongs to the thread which adds it, and entry state is accessed on that thread
+        if (renderThread != null) {
+            hudHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    initViewSpace();
+                    hudHandler.setScreenOn(isScreenOn());
+                }
+            });
+        } else {
+            initViewSpace();
+            hudHandler.setScreenOn(isScreenOn());
+        }
+
+        IntentFilter screenFilter = new IntentFilter(Intent.ACTION_SCREEN_ON);
+        screenFilter.addAction(Intent.ACTION_SCREEN_OFF);
+        registerReceiver(screenReceiver, screenFilter, null, hudHandler);
     }
 
     @Override
     public void onDestroy() {
-        deInitViewSpace();
-
+        unregisterReceiver(screenReceiver);
         hudHandler.removeCallbacksAndMessages(null);
 
+        if (renderThread != null) {
+            hudHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    releaseViewSpace();
+                    renderThread.quit();
+                }
+            });
+        } else {
+            releaseViewSpace();
+        }
+
         super.onDestroy();
     }
 
-    private void viewsUpdate() {
-        root.removeAllViews();
+    /**
+     * Checks whether device is interactive, which is what screen on and off broadcasts report.
+     */
+    @SuppressWarnings("deprecation")
+    private boolean isScreenOn() {
+        PowerManager powerManager = (PowerManager) getSystemService(POWER_SERVICE);
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT_WATCH
+                ? powerManager.isInteractive() : powerManager.isScreenOn();
+    }
+
+    private void releaseViewSpace() {
+        deInitViewSpace();
+        viewUpdater.cancel();
+    }
+
+    /**
+     * Applies pending changes to overlay views within {@link ServiceConfig#frameBudget} and
+     * client quotas. Clients take turns, one change at a time, starting from different client
+     * each update.
+     *
+     * @return Delay in milliseconds after which overlay must be updated again to apply changes
+     * left, or {@link #NO_RETRY} if all changes were applied.
+     */
+    private long viewsUpdate() {
+        long now = System.nanoTime();
+        long deadline = config.frameBudget > 0
+                ? now + TimeUnit.MILLISECONDS.toNanos(config.frameBudget)
+                : Long.MAX_VALUE;
+        long retryDelay = NO_RETRY;
+        boolean progressed = false;
+
+        for (IncomingHandler.DeathAwareView removed : hudHandler.detached) {
+            removeView(removed);
+        }
+        hudHandler.detached.clear();
+
+        for (IncomingHandler.DeathAwareView remoteView : hudHandler.remoteViews.values()) {
+            if (remoteView.dirty) {
+                remoteView.account.pending.add(remoteView);
+            }
+        }
+
+        List<ClientAccount> accounts = hudHandler.accountOrder;
+        int accountCount = accounts.size();
+        if (accountCount > 1) {
+            // Rotate so that no client is always the first one
+            accounts.add(accounts.remove(0));
+        }
+
+        boolean left = true;
+        for (int turn = 0; left && retryDelay != 0; turn++) {
+            left = false;
+
+            for (int i = 0; i < accountCount && retryDelay != 0; i++) {
+                ClientAccount account = accounts.get(i);
+                if (turn >= account.pending.size()) {
+                    continue;
+                }
+                left = true;
+
+                IncomingHandler.DeathAwareView remoteView = account.pending.get(turn);
+
+                // At least one entry is reconciled per update so that overlay won't get stuck
+                if (progressed && System.nanoTime() >= deadline) {
+                    retryDelay = 0;
+                    break;
+                }
+
+                if (!account.tryAcquire(System.nanoTime())) {
+                    throttle(remoteView);
+                    long delay = account.millisUntilAvailable();
+                    retryDelay = retryDelay == NO_RETRY ? delay : Math.min(retryDelay, delay);
+                    continue;
+                }
+
+                long startTime = System.nanoTime();
+                HudStats.INSTANCE.applyLatency.record(
+                        TimeUnit.NANOSECONDS.toMicros(startTime - remoteView.updateTime));
+                reconcile(remoteView);
+                HudStats.INSTANCE.applyTime.record(HudStats.micros(startTime));
+                reportConsumed(remoteView);
+                remoteView.dirty = false;
+                progressed = true;
+            }
+        }
+
+        for (ClientAccount account : accounts) {
+            account.pending.clear();
+        }
+
+        releaseEmptyRegions();
+
+        for (ClientProxy client : hudHandler.clients.values()) {
+            client.flushConsumed();
+        }
+
+        return retryDelay;
+    }
+
+    /**
+     * Counts client quota violation, once per update held back.
+     */
+    private static void throttle(IncomingHandler.DeathAwareView remoteView) {
+        if (!remoteView.throttled) {
+            remoteView.throttled = true;
+            HudStats.INSTANCE.throttledUpdates.incrementAndGet();
+        }
+    }
 
-        Collection<IncomingHandler.DeathAwareView> remoteViews = hudHandler.remoteViews.values();
+    private static void reportConsumed(IncomingHandler.DeathAwareView remoteView) {
+        if (remoteView.client != null) {
+            remoteView.client.reportConsumed(remoteView.token, remoteView.sequence);
+            remoteView.client = null;
+        }
+    }
+
+    /**
+     * Brings view of given entry in accordance with its latest update.
+     *
+     * @param remoteView Entry to reconcile.
+     */
+    private void reconcile(IncomingHandler.DeathAwareView remoteView) {
+        HudUpdate update = remoteView.update;
+
+        Region region = regionAt(update.gravity, update.offsetX, update.offsetY);
+        if (remoteView.region != region) {
+            moveToRegion(remoteView, region);
+        }
+
+        if (update.isText()) {
+            reconcileText(remoteView);
+        } else if (update.isGraph()) {
+            reconcileGraph(remoteView);
+        } else if (update.isSlots()) {
+            reconcileSlots(remoteView);
+        } else {
+            reconcileViews(remoteView);
+        }
+    }
+
+    /**
+     * View is inflated only when entry is shown for the first time or when its layout has
+     * changed, otherwise remote view is reapplied to existing view.
+     */
+    private void reconcileViews(IncomingHandler.DeathAwareView remoteView) {
+        RemoteViews update = remoteView.update.views;
+
+        if (remoteView.textDrawn) {
+            removeView(remoteView);
+        }
+
+        View view = remoteView.view;
+
+        if (view != null && (update == null
+                || !remoteView.isInflatedFrom(update.getPackage(), update.getLayoutId()))) {
+            removeView(remoteView);
+            view = null;
+        }
+
+        if (update != null) {
+            if (view == null) {
+                view = viewPool.acquire(update.getPackage(), update.getLayoutId());
+                if (view != null) {
+                    update.reapply(this, view);
+                } else {
+                    view = update.apply(this, remoteView.region.root);
+                    HudStats.INSTANCE.inflatedViews.incrementAndGet();
+                }
+                remoteView.region.addView(remoteView, view);
+
+                remoteView.viewPackage = update.getPackage();
+                remoteView.viewLayoutId = update.getLayoutId();
+            } else {
+                update.reapply(this, view);
+            }
+        }
+
+        remoteView.view = view;
+    }
+
+    /**
+     * Text is drawn by single {@link TextOverlayView} shown below all HUD views.
+     */
+    private void reconcileText(IncomingHandler.DeathAwareView remoteView) {
+        CharSequence text = remoteView.update.text;
+
+        if (remoteView.view != null) {
+            removeView(remoteView);
+        }
 
-        for (IncomingHandler.DeathAwareView remoteView : remoteViews) {
-            if (remoteView.remoteView != null) {
-                View view = remoteView.remoteView.apply(this, root);
-                root.addView(view);
+        if (text != null) {
+            Region region = remoteView.region;
+            if (region.textOverlay == null) {
+                region.textOverlay = new TextOverlayView(this);
+                region.root.addView(region.textOverlay);
             }
+            region.textOverlay.setText(remoteView.token, text);
+            remoteView.textDrawn = true;
+        } else if (remoteView.textDrawn) {
+            removeView(remoteView);
+        }
+    }
+
+    /**
+     * Graph view is created once and then only new samples are appended to it.
+     */
+    private void reconcileGraph(IncomingHandler.DeathAwareView remoteView) {
+        HudUpdate update = remoteView.update;
+
+        if (remoteView.textDrawn) {
+            removeView(remoteView);
+        }
+
+        GraphView graph = remoteView.view instanceof GraphView ? (GraphView) remoteView.view : null;
+
+        if (graph == null
+                || !graph.isConfiguredAs(update.graphCapacity, update.graphMin, update.graphMax)) {
+            if (remoteView.view != null) {
+                removeView(remoteView);
+            }
+
+            graph = new GraphView(this, update.graphCapacity, update.graphMin, update.graphMax);
+            remoteView.region.addView(remoteView, graph);
+
+            remoteView.view = graph;
+            remoteView.viewPackage = null;
+            remoteView.viewLayoutId = 0;
+        } else if (update.graphReset) {
+            graph.reset();
+        }
+
+        graph.append(update.samples);
+    }
+
+    /**
+     * View is inflated when slot update declares layout view was not inflated from. Slot values
+     * are set to descendant views directly, looking each of them up only once.
+     */
+    private void reconcileSlots(IncomingHandler.DeathAwareView remoteView) {
+        HudUpdate update = remoteView.update;
+
+        if (remoteView.textDrawn) {
+            removeView(remoteView);
+        }
+
+        if (update.hasLayout()
+                && (remoteView.view == null
+                || !remoteView.isInflatedFrom(update.layoutPackage, update.layoutId))) {
+            if (remoteView.view != null) {
+                removeView(remoteView);
+            }
+
+            View view = viewPool.acquire(update.layoutPackage, update.layoutId);
+            if (view == null) {
+                view = new RemoteViews(update.layoutPackage, update.layoutId)
+                        .apply(this, remoteView.region.root);
+                HudStats.INSTANCE.inflatedViews.incrementAndGet();
+            }
+            remoteView.region.addView(remoteView, view);
+
+            remoteView.view = view;
+
+            remoteView.viewPackage = update.layoutPackage;
+            remoteView.viewLayoutId = update.layoutId;
+        }
+
+        if (update.hasLayout()) {
+            // Full update carries every bitmap client has
+            remoteView.resyncRequested = false;
+        }
+
+        if (remoteView.view == null) {
+            Log.w(TAG, "Slot update of HUD with unknown layout");
+            return;
+        }
+
+        for (int i = 0; i < update.slotCount; i++) {
+            int id = update.slotIds[i];
+
+            View slotView = remoteView.slotViews.get(id);
+            if (slotView == null) {
+                slotView = remoteView.view.findViewById(id);
+                if (slotView == null) {
+                    continue;
+                }
+                remoteView.slotViews.put(id, slotView);
+            }
+
+            if (update.slotTypes[i] == HudUpdate.SLOT_BITMAP) {
+                applyBitmapSlot(remoteView, slotView, update, i);
+            } else {
+                releaseSlotBitmap(remoteView, id);
+                applySlot(slotView, update, i);
+            }
+        }
+    }
+
+    /**
+     * Shows cached bitmap, caching one the update carries first. Asks client for full update if
+     * bitmap has been evicted.
+     */
+    private void applyBitmapSlot(IncomingHandler.DeathAwareView remoteView, View view,
+            HudUpdate update, int index) {
+        int id = update.slotIds[index];
+        long bitmapId = update.slotBitmapIds[index];
+
+        Long shownId = remoteView.slotBitmapIds.get(id);
+        if (shownId != null && shownId == bitmapId) {
+            return;
+        }
+
+        Bitmap bitmap = bitmapCache.acquire(bitmapId, update.slotBitmaps[index]);
+        if (bitmap == null) {
+            if (!remoteView.resyncRequested && remoteView.sender != null) {
+                remoteView.resyncRequested = true;
+                remoteView.sender.requestResync(remoteView.token);
+            }
+            return;
+        }
+
+        releaseSlotBitmap(remoteView, id);
+        remoteView.slotBitmapIds.put(id, bitmapId);
+
+        if (view instanceof ImageView) {
+            ((ImageView) view).setImageBitmap(bitmap);
+        }
+    }
+
+    private void releaseSlotBitmap(IncomingHandler.DeathAwareView remoteView, int id) {
+        Long bitmapId = remoteView.slotBitmapIds.get(id);
+        if (bitmapId != null) {
+            remoteView.slotBitmapIds.remove(id);
+            bitmapCache.release(bitmapId);
+        }
+    }
+
+    private static void applySlot(View view, HudUpdate update, int index) {
+        switch (update.slotTypes[index]) {
+            case HudUpdate.SLOT_INT:
+                int value = update.slotNumbers[index];
+                if (view instanceof ProgressBar) {
+                    ((ProgressBar) view).setProgress(value);
+                } else if (view instanceof ImageView) {
+                    ((ImageView) view).setImageLevel(value);
+                } else if (view instanceof TextView) {
+                    ((TextView) view).setText(String.valueOf(value));
+                }
+                break;
+            case HudUpdate.SLOT_FLOAT:
+                if (view instanceof TextView) {
+                    ((TextView) view).setText(String.valueOf(update.getSlotFloat(index)));
+                }
+                break;
+            case HudUpdate.SLOT_TEXT:
+                if (view instanceof TextView) {
+                    ((TextView) view).setText(update.slotTexts[index]);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Moves view of entry to another region as is, so that slot and graph views keep state
+     * their delta updates rely on. Text is drawn anew by the next text update.
+     */
+    private void moveToRegion(IncomingHandler.DeathAwareView remoteView, Region region) {
+        if (remoteView.textDrawn) {
+            removeText(remoteView);
+        }
+
+        View view = remoteView.view;
+        if (view != null) {
+            remoteView.region.removeView(remoteView, view);
+        }
+
+        remoteView.region = region;
+
+        if (view != null) {
+            region.addView(remoteView, view);
+        }
+    }
+
+    private void removeText(IncomingHandler.DeathAwareView remoteView) {
+        Region region = remoteView.region;
+        region.textOverlay.remove(remoteView.token);
+        remoteView.textDrawn = false;
+
+        if (region.textOverlay.isEmpty()) {
+            region.root.removeView(region.textOverlay);
+            region.textOverlay = null;
+        }
+    }
+
+    private void removeView(IncomingHandler.DeathAwareView remoteView) {
+        if (remoteView.textDrawn) {
+            removeText(remoteView);
+        }
+
+        if (remoteView.view != null) {
+            remoteView.region.removeView(remoteView, remoteView.view);
+            if (remoteView.viewPackage != null) {
+                viewPool.release(remoteView.viewPackage, remoteView.viewLayoutId, remoteView.view);
+            }
+
+            remoteView.view = null;
+            remoteView.viewPackage = null;
+            remoteView.slotViews.clear();
+
+            for (int i = 0; i < remoteView.slotBitmapIds.size(); i++) {
+                bitmapCache.release(remoteView.slotBitmapIds.valueAt(i));
+            }
+            remoteView.slotBitmapIds.clear();
         }
     }
 
     private void visibilityUpdate() {
-        root.setVisibility(hudHandler.viewsAreShown ? View.VISIBLE : View.GONE);
+        for (Region region : regions) {
+            region.root.setVisibility(hudHandler.viewsAreShown ? View.VISIBLE : View.GONE);
+        }
+    }
+
+    /**
+     * Gets region of given place, adding its window if there is none yet.
+     */
+    private Region regionAt(int gravity, int offsetX, int offsetY) {
+        for (Region region : regions) {
+            if (region.isAt(gravity, offsetX, offsetY)) {
+                return region;
+            }
+        }
+
+        Region region = new Region(this, gravity, offsetX, offsetY);
+        region.root.setVisibility(hudHandler.viewsAreShown ? View.VISIBLE : View.GONE);
+        windowManager.addView(region.root, region.createLayoutParams());
+        regions.add(region);
+        HudStats.INSTANCE.windowCount.set(regions.size());
+        return region;
+    }
+
+    /**
+     * Removes windows of regions left without HUDs, except the default one.
+     */
+    private void releaseEmptyRegions() {
+        for (int i = regions.size() - 1; i > 0; i--) {
+            Region region = regions.get(i);
+            if (region.root.getChildCount() == 0) {
+                windowManager.removeView(region.root);
+                regions.remove(i);
+            }
+        }
+        HudStats.INSTANCE.windowCount.set(regions.size());
     }
 
     private void initViewSpace() {
@@ -196,19 +1367,10 @@ public final class HudService extends Service {
         }
 
         if (!viewSpaceInitialized && canDrawOverlays) {
-            WindowManager windowManager = (WindowManager) getSystemService(WINDOW_SERVICE);
+            windowManager = (WindowManager) getSystemService(WINDOW_SERVICE);
 
-            WindowManager.LayoutParams params = new WindowManager.LayoutParams(
-                    WindowManager.LayoutParams.WRAP_CONTENT,
-                    WindowManager.LayoutParams.WRAP_CONTENT,
-                    WindowManager.LayoutParams.TYPE_SYSTEM_OVERLAY,
-                    WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE,
-                    PixelFormat.TRANSLUCENT);
-            params.gravity = Gravity.START | Gravity.BOTTOM;
-
-            root = new LinearLayout(this);
-            root.setOrientation(LinearLayout.VERTICAL);
-            windowManager.addView(root, params);
+            // Default region is set up right away and kept even when empty
+            regionAt(Hud.DEFAULT_GRAVITY, 0, 0);
 
             viewSpaceInitialized = true;
         }
@@ -216,8 +1378,13 @@ public final class HudService extends Service {
 
     private void deInitViewSpace() {
         if (viewSpaceInitialized) {
-            WindowManager windowManager = (WindowManager) getSystemService(WINDOW_SERVICE);
-            windowManager.removeView(root);
+            for (Region region : regions) {
+                windowManager.removeView(region.root);
+            }
+            regions.clear();
+            HudStats.INSTANCE.windowCount.set(0);
+            viewPool.clear();
+            bitmapCache.clear();
 
             viewSpaceInitialized = false;
         }
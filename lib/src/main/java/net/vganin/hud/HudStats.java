@@ -0,0 +1,206 @@
+package net.vganin.hud;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Costs of HUD updates along the way from client to overlay. Times are in microseconds.
+ * <p>
+ * Client metrics are recorded by {@link HudMessenger}, except lateness of updates, which is
+ * recorded by {@link HudScheduler}. Service metrics are recorded by {@link HudService} and are
+ * available only if the service runs in the same process, which is the default unless
+ * {@code android:process} is set for it.
+ *
+ * @see HudManager#getStats()
+ */
+public final class HudStats {
+
+    static final HudStats INSTANCE = new HudStats();
+
+    private static final long NOT_STARTING = Long.MIN_VALUE;
+
+    final HudHistogram startupTime = new HudHistogram();
+    final HudHistogram updateLateness = new HudHistogram();
+    final HudHistogram updateTime = new HudHistogram();
+    final HudHistogram updateSize = new HudHistogram();
+    final HudHistogram sendDelay = new HudHistogram();
+    final HudHistogram applyLatency = new HudHistogram();
+    final HudHistogram applyTime = new HudHistogram();
+    final HudHistogram layoutTime = new HudHistogram();
+
+    final HudHistogram windowLayoutTime = new HudHistogram();
+
+    final AtomicLong throttledUpdates = new AtomicLong();
+    final AtomicLong inflatedViews = new AtomicLong();
+    final AtomicInteger windowCount = new AtomicInteger();
+
+    /**
+     * {@link System#nanoTime()} at which HUD was added while none were shown, or
+     * {@link #NOT_STARTING} if it has been drawn since.
+     */
+    private final AtomicLong startupStartTime = new AtomicLong(NOT_STARTING);
+
+    private HudStats() {
+    }
+
+    /**
+     * @return Time from HUD being added while none were shown to overlay being drawn with it,
+     * including connection to the service and setting up overlay window unless it was done
+     * beforehand. Recorded only if the service runs in the same process.
+     * @see HudManager#prewarm(android.content.Context)
+     */
+    public HudHistogram getStartupTime() {
+        return startupTime;
+    }
+
+    /**
+     * @return Time from HUD update being due to it being started.
+     */
+    public HudHistogram getUpdateLateness() {
+        return updateLateness;
+    }
+
+    /**
+     * @return Time {@link Hud#getUpdate()} takes.
+     */
+    public HudHistogram getUpdateTime() {
+        return updateTime;
+    }
+
+    /**
+     * @return Size of parceled update in bytes.
+     */
+    public HudHistogram getUpdateSize() {
+        return updateSize;
+    }
+
+    /**
+     * @return Time from update being made to it being sent to the service, including batching and
+     * waiting in the sending queue.
+     */
+    public HudHistogram getSendDelay() {
+        return sendDelay;
+    }
+
+    /**
+     * @return Time from update being received by the service to it being applied to overlay.
+     */
+    public HudHistogram getApplyLatency() {
+        return applyLatency;
+    }
+
+    /**
+     * @return Time of applying remote view to overlay view.
+     */
+    public HudHistogram getApplyTime() {
+        return applyTime;
+    }
+
+    /**
+     * @return Time of measuring single HUD view during overlay layout.
+     */
+    public HudHistogram getLayoutTime() {
+        return layoutTime;
+    }
+
+    /**
+     * @return Time of measuring single overlay window with all its HUD views.
+     * @see Hud#getGravity()
+     */
+    public HudHistogram getWindowLayoutTime() {
+        return windowLayoutTime;
+    }
+
+    /**
+     * @return Number of overlay windows service currently shows, one per place HUDs are shown at.
+     * @see Hud#getGravity()
+     */
+    public int getWindowCount() {
+        return windowCount.get();
+    }
+
+    /**
+     * @return Number of updates service held back because their client app exceeded its quota.
+     * @see HudService#META_CLIENT_UPDATE_RATE
+     */
+    public long getThrottledUpdateCount() {
+        return throttledUpdates.get();
+    }
+
+    /**
+     * @return Number of HUD views service inflated. Views are reused while HUD layout stays the
+     * same and taken from pool of removed ones, so it should stay close to number of HUDs shown.
+     */
+    public long getInflatedViewCount() {
+        return inflatedViews.get();
+    }
+
+    /**
+     * Clears all recorded values.
+     */
+    public void reset() {
+        startupTime.reset();
+        updateLateness.reset();
+        updateTime.reset();
+        updateSize.reset();
+        sendDelay.reset();
+        applyLatency.reset();
+        applyTime.reset();
+        layoutTime.reset();
+        windowLayoutTime.reset();
+        throttledUpdates.set(0);
+        inflatedViews.set(0);
+    }
+
+    /**
+     * Gets all metrics as JSON object, one field per metric, e.g.
+     * {@code {"updateTime":{"count":10,"mean":120,"p50":127,"p90":250,"p99":250,"max":250},...}}.
+     * Meant for collecting results of benchmark runs so that they can be compared between
+     * releases.
+     *
+     * @return JSON string.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        appendJson(json, "startupTime", startupTime).append(',');
+        appendJson(json, "updateLateness", updateLateness).append(',');
+        appendJson(json, "updateTime", updateTime).append(',');
+        appendJson(json, "updateSize", updateSize).append(',');
+        appendJson(json, "sendDelay", sendDelay).append(',');
+        appendJson(json, "applyLatency", applyLatency).append(',');
+        appendJson(json, "applyTime", applyTime).append(',');
+        appendJson(json, "layoutTime", layoutTime).append(',');
+        appendJson(json, "windowLayoutTime", windowLayoutTime).append(',');
+        json.append("\"windowCount\":").append(windowCount.get()).append(',');
+        json.append("\"throttledUpdates\":").append(throttledUpdates.get()).append(',');
+        json.append("\"inflatedViews\":").append(inflatedViews.get());
+        return json.append('}').toString();
+    }
+
+    private static StringBuilder appendJson(StringBuilder json, String name,
+            HudHistogram histogram) {
+        json.append('"').append(name).append("\":");
+        histogram.appendJson(json);
+        return json;
+    }
+
+    void startupStarted() {
+        startupStartTime.compareAndSet(NOT_STARTING, System.nanoTime());
+    }
+
+    /**
+     * Called on every draw of overlay showing HUDs, so it is cheap unless startup is measured.
+     */
+    void startupFinished() {
+        if (startupStartTime.get() != NOT_STARTING) {
+            long startTime = startupStartTime.getAndSet(NOT_STARTING);
+            if (startTime != NOT_STARTING) {
+                startupTime.record(micros(startTime));
+            }
+        }
+    }
+
+    static long micros(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000;
+    }
+}
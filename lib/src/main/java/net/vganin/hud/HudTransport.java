@@ -0,0 +1,53 @@
+package net.vganin.hud;
+
+import android.os.IBinder;
+import android.os.RemoteException;
+
+import java.util.List;
+
+/**
+ * Way of delivering messages from {@link HudManager} to {@link HudService}.
+ */
+interface HudTransport {
+
+    interface ServiceListener {
+
+        /**
+         * Called when service has consumed HUD update.
+         *
+         * @param token HUD token.
+         * @param sequence Sequence number of the update.
+         */
+        void onConsumed(IBinder token, int sequence);
+
+        /**
+         * Called when overlay gets visible or invisible.
+         *
+         * @param visible Whether overlay is not toggled off and screen is on.
+         */
+        void onVisibilityChanged(boolean visible);
+
+        /**
+         * Called when service has lost state of HUD, e.g. bitmap the HUD has sent once, so HUD
+         * must send full update.
+         *
+         * @param token HUD token.
+         */
+        void onResyncRequired(IBinder token);
+    }
+
+    /**
+     * @param sequence Sequence number of the update or {@link Const#NO_SEQUENCE}.
+     */
+    void update(IBinder token, HudUpdate update, int sequence) throws RemoteException;
+
+    /**
+     * Updates and sequence number at each index correspond to HUD token at the same index.
+     */
+    void updateBatch(List<IBinder> tokens, List<HudUpdate> updates, int[] sequences)
+            throws RemoteException;
+
+    void remove(IBinder token) throws RemoteException;
+
+    void toggleVisibility() throws RemoteException;
+}
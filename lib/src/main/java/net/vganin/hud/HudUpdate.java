@@ -0,0 +1,518 @@
+package net.vganin.hud;
+
+import android.graphics.Bitmap;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.text.Spanned;
+import android.text.TextUtils;
+import android.widget.RemoteViews;
+
+/**
+ * Update of single HUD as sent to {@link HudService}. Carries either remote views made by
+ * {@link Hud#getUpdate()}, text of {@link DebugTextHud} drawn by canvas, slot values made by
+ * {@link SlotHud} or samples of {@link GraphHud}.
+ * <p>
+ * Slot and graph updates are deltas. Slot update carries only values of the slots which have
+ * changed, plus the layout they belong to if the service may not know it yet. Bitmap slot carries
+ * content hash of bitmap, and bitmap itself only if the service may not have it cached yet. Graph
+ * update carries only samples appended since previous update, unless it resets graph.
+ * <p>
+ * Class is public only for the platform to find {@link #CREATOR} when it unparcels update from
+ * {@link android.os.Bundle} of {@link MessengerTransport} message. It is not meant to be used by
+ * applications, so it can be neither made nor read outside of the library.
+ */
+public final class HudUpdate implements Parcelable {
+
+    static final int SLOT_INT = 0;
+    static final int SLOT_FLOAT = 1;
+    static final int SLOT_TEXT = 2;
+    static final int SLOT_BITMAP = 3;
+
+    private static final int KIND_VIEWS = 0;
+    private static final int KIND_SLOTS = 1;
+    private static final int KIND_TEXT = 2;
+    private static final int KIND_GRAPH = 3;
+
+    static final long NO_FINGERPRINT = 0;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    public static final Creator<HudUpdate> CREATOR = new Creator<HudUpdate>() {
+        @Override
+        public HudUpdate createFromParcel(Parcel source) {
+            return readFromParcel(source);
+        }
+
+        @Override
+        public HudUpdate[] newArray(int size) {
+            return new HudUpdate[size];
+        }
+    };
+
+    private final int kind;
+
+    /**
+     * Place of overlay HUD is shown at, as returned by {@link Hud#getGravity()},
+     * {@link Hud#getOffsetX()} and {@link Hud#getOffsetY()}.
+     */
+    int gravity = Hud.DEFAULT_GRAVITY;
+    int offsetX;
+    int offsetY;
+
+    /**
+     * Remote views, {@code null} if HUD must be hidden.
+     */
+    RemoteViews views;
+
+    /**
+     * Text to draw, {@code null} if HUD must be hidden.
+     */
+    CharSequence text;
+
+    /**
+     * Package and layout of slot views, {@code null} package if not included.
+     */
+    String layoutPackage;
+    int layoutId;
+
+    /**
+     * Slot values. Number of slot at each index is either int value or raw bits of float value.
+     * Bitmap of slot may be {@code null} if the service has it cached by its id.
+     */
+    int slotCount;
+    int[] slotIds;
+    int[] slotTypes;
+    int[] slotNumbers;
+    CharSequence[] slotTexts;
+    long[] slotBitmapIds;
+    Bitmap[] slotBitmaps;
+
+    /**
+     * Number of samples graph shows and range of their values.
+     */
+    int graphCapacity;
+    float graphMin;
+    float graphMax;
+
+    /**
+     * Whether samples replace ones graph has, rather than being appended to them.
+     */
+    boolean graphReset;
+
+    /**
+     * New samples, the oldest first.
+     */
+    float[] samples;
+
+    /**
+     * This update as written by {@link #parcel()}, copied to transactions as is instead of being
+     * written again. {@code null} if not written yet or recycled.
+     */
+    private Parcel parceled;
+
+    private HudUpdate(int kind) {
+        this.kind = kind;
+    }
+
+    static HudUpdate ofViews(RemoteViews views) {
+        HudUpdate update = new HudUpdate(KIND_VIEWS);
+        update.views = views;
+        return update;
+    }
+
+    static HudUpdate ofText(CharSequence text) {
+        HudUpdate update = new HudUpdate(KIND_TEXT);
+        update.text = text;
+        return update;
+    }
+
+    /**
+     * Creates slot update with given number of slots. Slots are to be filled by caller.
+     *
+     * @param layoutPackage Package of layout or {@code null} if layout is not included.
+     */
+    static HudUpdate ofSlots(String layoutPackage, int layoutId, int slotCount) {
+        HudUpdate update = new HudUpdate(KIND_SLOTS);
+        update.layoutPackage = layoutPackage;
+        update.layoutId = layoutId;
+        update.slotCount = slotCount;
+        update.slotIds = new int[slotCount];
+        update.slotTypes = new int[slotCount];
+        update.slotNumbers = new int[slotCount];
+        update.slotTexts = new CharSequence[slotCount];
+        update.slotBitmapIds = new long[slotCount];
+        update.slotBitmaps = new Bitmap[slotCount];
+        return update;
+    }
+
+    static HudUpdate ofGraph(int capacity, float min, float max, boolean reset,
+            float[] samples) {
+        HudUpdate update = new HudUpdate(KIND_GRAPH);
+        update.graphCapacity = capacity;
+        update.graphMin = min;
+        update.graphMax = max;
+        update.graphReset = reset;
+        update.samples = samples;
+        return update;
+    }
+
+    private static HudUpdate readFromParcel(Parcel in) {
+        int kind = in.readInt();
+        int gravity = in.readInt();
+        int offsetX = in.readInt();
+        int offsetY = in.readInt();
+
+        HudUpdate update = readContentFromParcel(kind, in);
+        update.setPlace(gravity, offsetX, offsetY);
+        return update;
+    }
+
+    private static HudUpdate readContentFromParcel(int kind, Parcel in) {
+        switch (kind) {
+            case KIND_VIEWS:
+                return ofViews(in.readInt() != 0 ? RemoteViews.CREATOR.createFromParcel(in) : null);
+            case KIND_TEXT:
+                return ofText(TextUtils.CHAR_SEQUENCE_CREATOR.createFromParcel(in));
+            case KIND_GRAPH:
+                return ofGraph(in.readInt(), in.readFloat(), in.readFloat(), in.readInt() != 0,
+                        in.createFloatArray());
+            default:
+                HudUpdate update = ofSlots(in.readString(), in.readInt(), in.readInt());
+                for (int i = 0; i < update.slotCount; i++) {
+                    update.slotIds[i] = in.readInt();
+                    update.slotTypes[i] = in.readInt();
+                    if (update.slotTypes[i] == SLOT_TEXT) {
+                        update.slotTexts[i] = TextUtils.CHAR_SEQUENCE_CREATOR.createFromParcel(in);
+                    } else if (update.slotTypes[i] == SLOT_BITMAP) {
+                        update.slotBitmapIds[i] = in.readLong();
+                        update.slotBitmaps[i] = in.readInt() != 0
+                                ? Bitmap.CREATOR.createFromParcel(in) : null;
+                    } else {
+                        update.slotNumbers[i] = in.readInt();
+                    }
+                }
+                return update;
+        }
+    }
+
+    void setPlace(int gravity, int offsetX, int offsetY) {
+        this.gravity = gravity;
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+    }
+
+    boolean isSlots() {
+        return kind == KIND_SLOTS;
+    }
+
+    boolean isText() {
+        return kind == KIND_TEXT;
+    }
+
+    boolean isGraph() {
+        return kind == KIND_GRAPH;
+    }
+
+    /**
+     * Checks whether update is delta which changes nothing.
+     */
+    boolean isEmpty() {
+        switch (kind) {
+            case KIND_SLOTS:
+                return slotCount == 0 && !hasLayout();
+            case KIND_GRAPH:
+                return samples.length == 0 && !graphReset;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Computes 64-bit FNV-1a hash of update content, so that update equal to the previous one of
+     * the same HUD may be skipped. Fields are hashed directly. Remote views keep their actions
+     * private, so they and styled texts are hashed from {@link #parcel()} in place.
+     *
+     * @return Hash or {@link #NO_FINGERPRINT} if update must not be skipped: it appends graph
+     * samples, which are new however equal they are to previous ones, or it carries file
+     * descriptors, which differ each time the same content is written.
+     */
+    long fingerprint() {
+        if (kind == KIND_GRAPH && !graphReset) {
+            return NO_FINGERPRINT;
+        }
+
+        long hash = FNV_OFFSET_BASIS;
+        hash = hash(hash, kind);
+        hash = hash(hash, gravity);
+        hash = hash(hash, offsetX);
+        hash = hash(hash, offsetY);
+
+        switch (kind) {
+            case KIND_VIEWS:
+                return hashParcel();
+            case KIND_TEXT:
+                if (text instanceof Spanned) {
+                    return hashParcel();
+                }
+                return hash(hash, text);
+            case KIND_GRAPH:
+                hash = hash(hash, graphCapacity);
+                hash = hash(hash, Float.floatToIntBits(graphMin));
+                hash = hash(hash, Float.floatToIntBits(graphMax));
+                for (float sample : samples) {
+                    hash = hash(hash, Float.floatToIntBits(sample));
+                }
+                return hash;
+            default:
+                hash = hash(hash, layoutPackage);
+                hash = hash(hash, layoutId);
+                for (int i = 0; i < slotCount; i++) {
+                    hash = hash(hash, slotIds[i]);
+                    hash = hash(hash, slotTypes[i]);
+                    if (slotTypes[i] == SLOT_TEXT) {
+                        if (slotTexts[i] instanceof Spanned) {
+                            return hashParcel();
+                        }
+                        hash = hash(hash, slotTexts[i]);
+                    } else if (slotTypes[i] == SLOT_BITMAP) {
+                        // Bitmap is identified by hash of its content
+                        hash = hash(hash, (int) slotBitmapIds[i]);
+                        hash = hash(hash, (int) (slotBitmapIds[i] >>> 32));
+                    } else {
+                        hash = hash(hash, slotNumbers[i]);
+                    }
+                }
+                return hash;
+        }
+    }
+
+    /**
+     * Hashes parcel of update by 32-bit words, reading it in place rather than copying it out.
+     */
+    private long hashParcel() {
+        Parcel parcel = parcel();
+        if (parcel.hasFileDescriptors()) {
+            return NO_FINGERPRINT;
+        }
+
+        int position = parcel.dataPosition();
+        parcel.setDataPosition(0);
+
+        long hash = FNV_OFFSET_BASIS;
+        for (int words = parcel.dataSize() / 4; words > 0; words--) {
+            hash = hash(hash, parcel.readInt());
+        }
+
+        parcel.setDataPosition(position);
+        return hash;
+    }
+
+    private static long hash(long hash, int value) {
+        return (hash ^ (value & 0xffffffffL)) * FNV_PRIME;
+    }
+
+    private static long hash(long hash, CharSequence text) {
+        if (text == null) {
+            return hash(hash, -1);
+        }
+
+        hash = hash(hash, text.length());
+        for (int i = 0; i < text.length(); i++) {
+            hash = hash(hash, text.charAt(i));
+        }
+        return hash;
+    }
+
+    /**
+     * Checks whether this update, replacing given older one, must be merged with it.
+     */
+    boolean mustMergeWith(HudUpdate older) {
+        return (kind == KIND_SLOTS || kind == KIND_GRAPH) && older.kind == kind;
+    }
+
+    boolean hasLayout() {
+        return layoutPackage != null;
+    }
+
+    float getSlotFloat(int index) {
+        return Float.intBitsToFloat(slotNumbers[index]);
+    }
+
+    /**
+     * Combines this delta with older one it replaces, so that nothing the older one carried is
+     * lost.
+     *
+     * @param older Older update of the same HUD.
+     * @return Combined update.
+     * @see #mustMergeWith(HudUpdate)
+     */
+    HudUpdate mergeWith(HudUpdate older) {
+        HudUpdate merged = kind == KIND_GRAPH ? mergeSamplesWith(older) : mergeSlotsWith(older);
+        merged.setPlace(gravity, offsetX, offsetY);
+        return merged;
+    }
+
+    private HudUpdate mergeSlotsWith(HudUpdate older) {
+        int olderOnly = 0;
+        for (int i = 0; i < older.slotCount; i++) {
+            if (indexOfSlot(older.slotIds[i]) < 0) {
+                olderOnly++;
+            }
+        }
+
+        HudUpdate merged = hasLayout() || !older.hasLayout()
+                ? ofSlots(layoutPackage, layoutId, slotCount + olderOnly)
+                : ofSlots(older.layoutPackage, older.layoutId, slotCount + olderOnly);
+
+        int index = 0;
+        for (int i = 0; i < older.slotCount; i++) {
+            if (indexOfSlot(older.slotIds[i]) < 0) {
+                merged.copySlot(index++, older, i);
+            }
+        }
+        for (int i = 0; i < slotCount; i++) {
+            merged.copySlot(index++, this, i);
+        }
+
+        // Bitmap may be left only by slot older update has set and newer one has overwritten
+        for (int i = 0; i < merged.slotCount; i++) {
+            if (merged.slotTypes[i] == SLOT_BITMAP && merged.slotBitmaps[i] == null) {
+                merged.slotBitmaps[i] = older.findBitmap(merged.slotBitmapIds[i]);
+            }
+        }
+
+        return merged;
+    }
+
+    private Bitmap findBitmap(long id) {
+        for (int i = 0; i < slotCount; i++) {
+            if (slotTypes[i] == SLOT_BITMAP && slotBitmapIds[i] == id && slotBitmaps[i] != null) {
+                return slotBitmaps[i];
+            }
+        }
+        return null;
+    }
+
+    private HudUpdate mergeSamplesWith(HudUpdate older) {
+        if (graphReset) {
+            return this;
+        }
+
+        // Samples beyond capacity would be scrolled out anyway
+        int fromOlder = Math.min(older.samples.length,
+                Math.max(graphCapacity - samples.length, 0));
+        int fromThis = Math.min(samples.length, graphCapacity);
+
+        float[] merged = new float[fromOlder + fromThis];
+        System.arraycopy(older.samples, older.samples.length - fromOlder, merged, 0, fromOlder);
+        System.arraycopy(samples, samples.length - fromThis, merged, fromOlder, fromThis);
+
+        return ofGraph(graphCapacity, graphMin, graphMax, older.graphReset, merged);
+    }
+
+    private int indexOfSlot(int id) {
+        for (int i = 0; i < slotCount; i++) {
+            if (slotIds[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void copySlot(int index, HudUpdate source, int sourceIndex) {
+        slotIds[index] = source.slotIds[sourceIndex];
+        slotTypes[index] = source.slotTypes[sourceIndex];
+        slotNumbers[index] = source.slotNumbers[sourceIndex];
+        slotTexts[index] = source.slotTexts[sourceIndex];
+        slotBitmapIds[index] = source.slotBitmapIds[sourceIndex];
+        slotBitmaps[index] = source.slotBitmaps[sourceIndex];
+    }
+
+    /**
+     * Writes update to parcel kept until {@link #recycle()}, so that size and content of update
+     * are known before it is sent and it is not written again when sent.
+     *
+     * @return Parcel update is written to. Must not be modified.
+     */
+    Parcel parcel() {
+        if (parceled == null) {
+            parceled = Parcel.obtain();
+            writeContentToParcel(parceled, 0);
+        }
+        return parceled;
+    }
+
+    /**
+     * Releases parcel written by {@link #parcel()}. Update is written anew if sent afterwards.
+     */
+    void recycle() {
+        if (parceled != null) {
+            parceled.recycle();
+            parceled = null;
+        }
+    }
+
+    @Override
+    public int describeContents() {
+        int contents = views != null ? views.describeContents() : 0;
+        if (slotBitmaps != null) {
+            for (Bitmap bitmap : slotBitmaps) {
+                if (bitmap != null) {
+                    contents |= bitmap.describeContents();
+                }
+            }
+        }
+        return contents;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        if (parceled != null) {
+            dest.appendFrom(parceled, 0, parceled.dataSize());
+        } else {
+            writeContentToParcel(dest, flags);
+        }
+    }
+
+    private void writeContentToParcel(Parcel dest, int flags) {
+        dest.writeInt(kind);
+        dest.writeInt(gravity);
+        dest.writeInt(offsetX);
+        dest.writeInt(offsetY);
+
+        if (kind == KIND_VIEWS) {
+            dest.writeInt(views != null ? 1 : 0);
+            if (views != null) {
+                views.writeToParcel(dest, flags);
+            }
+        } else if (kind == KIND_TEXT) {
+            TextUtils.writeToParcel(text, dest, flags);
+        } else if (kind == KIND_GRAPH) {
+            dest.writeInt(graphCapacity);
+            dest.writeFloat(graphMin);
+            dest.writeFloat(graphMax);
+            dest.writeInt(graphReset ? 1 : 0);
+            dest.writeFloatArray(samples);
+        } else {
+            dest.writeString(layoutPackage);
+            dest.writeInt(layoutId);
+            dest.writeInt(slotCount);
+
+            for (int i = 0; i < slotCount; i++) {
+                dest.writeInt(slotIds[i]);
+                dest.writeInt(slotTypes[i]);
+                if (slotTypes[i] == SLOT_TEXT) {
+                    TextUtils.writeToParcel(slotTexts[i], dest, flags);
+                } else if (slotTypes[i] == SLOT_BITMAP) {
+                    dest.writeLong(slotBitmapIds[i]);
+                    dest.writeInt(slotBitmaps[i] != null ? 1 : 0);
+                    if (slotBitmaps[i] != null) {
+                        slotBitmaps[i].writeToParcel(dest, flags);
+                    }
+                } else {
+                    dest.writeInt(slotNumbers[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package net.vganin.hud;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Observable value to bind {@link ObservableHud} to. May be set from any thread.
+ *
+ * @param <T> Value type.
+ */
+public class HudValue<T> {
+
+    public interface Listener<T> {
+
+        /**
+         * Called on the thread which changed value.
+         *
+         * @param value New value.
+         */
+        void onValueChanged(T value);
+    }
+
+    private final List<Listener<T>> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile T value;
+
+    public HudValue() {
+    }
+
+    public HudValue(T value) {
+        this.value = value;
+    }
+
+    public T get() {
+        return value;
+    }
+
+    /**
+     * Sets new value. Listeners are notified only if value is not equal to the current one.
+     *
+     * @param value New value.
+     */
+    public void set(T value) {
+        synchronized (this) {
+            T oldValue = this.value;
+            if (oldValue == null ? value == null : oldValue.equals(value)) {
+                return;
+            }
+            this.value = value;
+        }
+
+        for (Listener<T> listener : listeners) {
+            listener.onValueChanged(value);
+        }
+    }
+
+    public void addListener(Listener<T> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener<T> listener) {
+        listeners.remove(listener);
+    }
+}
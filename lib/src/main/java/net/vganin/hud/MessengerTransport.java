@@ -0,0 +1,125 @@
+package net.vganin.hud;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+import android.support.v4.app.BundleCompat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Transport sending {@link Message}s as described in {@link Const}.
+ */
+final class MessengerTransport implements HudTransport {
+
+    private static final class ReplyCallback implements Handler.Callback {
+
+        private final ServiceListener listener;
+
+        private ReplyCallback(ServiceListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public boolean handleMessage(Message msg) {
+            if (msg.what == Const.MESSAGE_UPDATE_CONSUMED) {
+                List<Bundle> consumed = msg.getData().getParcelableArrayList(Const.EXTRA_BATCH);
+                if (consumed != null) {
+                    for (Bundle args : consumed) {
+                        listener.onConsumed(BundleCompat.getBinder(args, Const.EXTRA_TOKEN),
+                                args.getInt(Const.EXTRA_SEQUENCE));
+                    }
+                }
+                return true;
+            } else if (msg.what == Const.MESSAGE_VISIBILITY_CHANGED) {
+                listener.onVisibilityChanged(msg.arg1 != 0);
+                return true;
+            } else if (msg.what == Const.MESSAGE_RESYNC_HUD) {
+                listener.onResyncRequired(BundleCompat.getBinder(msg.getData(), Const.EXTRA_TOKEN));
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private final Messenger messenger;
+    private final Messenger replyTo;
+
+    /**
+     * @param target Service binder.
+     * @param looper Looper to receive reports on.
+     * @param listener Listener or {@code null} if reports are not needed.
+     */
+    MessengerTransport(IBinder target, Looper looper, ServiceListener listener) {
+        messenger = new Messenger(target);
+        replyTo = listener != null
+                ? new Messenger(new Handler(looper, new ReplyCallback(listener))) : null;
+    }
+
+    @Override
+    public void update(IBinder token, HudUpdate update, int sequence) throws RemoteException {
+        send(createUpdate(token, update, sequence));
+    }
+
+    @Override
+    public void updateBatch(List<IBinder> tokens, List<HudUpdate> updates, int[] sequences)
+            throws RemoteException {
+        send(createUpdateBatch(tokens, updates, sequences));
+    }
+
+    @Override
+    public void remove(IBinder token) throws RemoteException {
+        send(createMessage(Const.MESSAGE_REMOVE_HUD,
+                createUpdateArgs(token, null, Const.NO_SEQUENCE)));
+    }
+
+    @Override
+    public void toggleVisibility() throws RemoteException {
+        send(createMessage(Const.MESSAGE_TOGGLE_VISIBILITY, null));
+    }
+
+    private void send(Message message) throws RemoteException {
+        message.replyTo = replyTo;
+        messenger.send(message);
+    }
+
+    static Message createUpdate(IBinder token, HudUpdate update, int sequence) {
+        return createMessage(Const.MESSAGE_UPDATE_HUD, createUpdateArgs(token, update, sequence));
+    }
+
+    static Message createUpdateBatch(List<IBinder> tokens, List<HudUpdate> updates,
+            int[] sequences) {
+        ArrayList<Bundle> batch = new ArrayList<>(tokens.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            batch.add(createUpdateArgs(tokens.get(i), updates.get(i), sequences[i]));
+        }
+
+        Bundle args = new Bundle();
+        args.putParcelableArrayList(Const.EXTRA_BATCH, batch);
+        return createMessage(Const.MESSAGE_UPDATE_BATCH, args);
+    }
+
+    private static Message createMessage(int what, Bundle args) {
+        Message message = new Message();
+        message.what = what;
+        if (args != null) {
+            message.setData(args);
+        }
+        return message;
+    }
+
+    private static Bundle createUpdateArgs(IBinder token, HudUpdate update, int sequence) {
+        Bundle args = new Bundle();
+        BundleCompat.putBinder(args, Const.EXTRA_TOKEN, token);
+        args.putParcelable(Const.EXTRA_MESSAGE, update);
+        if (sequence != Const.NO_SEQUENCE) {
+            args.putInt(Const.EXTRA_SEQUENCE, sequence);
+        }
+        return args;
+    }
+}
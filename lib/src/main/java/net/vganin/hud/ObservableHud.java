@@ -0,0 +1,112 @@
+package net.vganin.hud;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.widget.RemoteViews;
+
+/**
+ * HUD bound to {@link HudValue}. Unlike regular {@link Hud} it is not polled periodically but
+ * updated whenever value changes. Bursts of changes are coalesced so that HUD is updated at most
+ * once per minimum interval, always ending up with the latest value.
+ *
+ * @param <T> Value type.
+ */
+public abstract class ObservableHud<T> extends Hud {
+
+    private final HudValue<T> source;
+    private final int minInterval;
+
+    private final HudValue.Listener<T> listener = new HudValue.Listener<T>() {
+        @Override
+        public void onValueChanged(T value) {
+            requestCoalescedUpdate();
+        }
+    };
+
+    private Context context;
+
+    /**
+     * Guarded by {@code this}.
+     */
+    private boolean added = false;
+    private boolean updateRequested = false;
+    private long lastUpdateTime = 0;
+
+    /**
+     * @param source Value to display.
+     * @param minInterval Minimum interval between updates in milliseconds.
+     */
+    public ObservableHud(HudValue<T> source, int minInterval) {
+        this.source = source;
+        this.minInterval = minInterval;
+    }
+
+    public ObservableHud(HudValue<T> source) {
+        this(source, MINIMUM_UPDATE_PERIOD);
+    }
+
+    /**
+     * Gets remote view displaying value.
+     *
+     * @param value Current value of the source.
+     * @return Any remote view group.
+     */
+    public abstract RemoteViews getValueUpdate(T value);
+
+    @Override
+    public final RemoteViews getUpdate() {
+        synchronized (this) {
+            updateRequested = false;
+            lastUpdateTime = SystemClock.uptimeMillis();
+        }
+
+        return getValueUpdate(source.get());
+    }
+
+    @Override
+    public final int getUpdatePeriod() {
+        return NO_PERIODIC_UPDATE;
+    }
+
+    @Override
+    void onAdded(Context ctx) {
+        synchronized (this) {
+            context = ctx.getApplicationContext();
+
+            // HUD added twice is still removed at once
+            if (!added) {
+                added = true;
+                source.addListener(listener);
+            }
+        }
+    }
+
+    @Override
+    void onRemoved() {
+        synchronized (this) {
+            if (added) {
+                added = false;
+                source.removeListener(listener);
+            }
+        }
+    }
+
+    private void requestCoalescedUpdate() {
+        Context ctx;
+        long maxDelay;
+
+        synchronized (this) {
+            if (updateRequested) {
+                // Requested update will pick up the latest value
+                return;
+            }
+            updateRequested = true;
+
+            ctx = context;
+            maxDelay = Math.max(lastUpdateTime + minInterval - SystemClock.uptimeMillis(), 0);
+        }
+
+        // Does not postpone update which is already due earlier
+        HudManager.requestUpdateWithin(ctx, this, maxDelay);
+    }
+}
@@ -0,0 +1,88 @@
+package net.vganin.hud;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Actions requested while not connected to the service, to be run on connection. All methods may
+ * be called from any thread.
+ */
+final class PendingActions {
+
+    interface Callback {
+
+        /**
+         * Called for each HUD whose update was requested.
+         *
+         * @param hud HUD to update.
+         * @param delay The smallest delay update was requested with.
+         */
+        void onUpdate(Hud hud, long delay);
+    }
+
+    /**
+     * Delays of updates by HUDs. Requests of the same HUD are coalesced into one, so each HUD is
+     * updated once on connection no matter how many times it was requested.
+     */
+    private final ConcurrentMap<Hud, Long> updates = new ConcurrentHashMap<>();
+
+    /**
+     * Whether overlay visibility must be toggled. Toggles cancel each other out in pairs.
+     */
+    private final AtomicBoolean toggle = new AtomicBoolean();
+
+    /**
+     * Records update of HUD. The sooner of pending and requested updates wins.
+     *
+     * @param hud HUD to update.
+     * @param delay Delay of update in milliseconds.
+     */
+    void addUpdate(Hud hud, long delay) {
+        Long pending;
+        do {
+            pending = updates.putIfAbsent(hud, delay);
+        } while (pending != null && delay < pending && !updates.replace(hud, pending, delay));
+    }
+
+    void removeUpdate(Hud hud) {
+        updates.remove(hud);
+    }
+
+    void addToggle() {
+        boolean value;
+        do {
+            value = toggle.get();
+        } while (!toggle.compareAndSet(value, !value));
+    }
+
+    /**
+     * Hands recorded updates to callback and forgets them. Update requested again meanwhile is
+     * left to its requester.
+     */
+    void runUpdates(Callback callback) {
+        for (Map.Entry<Hud, Long> entry : updates.entrySet()) {
+            Hud hud = entry.getKey();
+            Long delay = entry.getValue();
+
+            if (updates.remove(hud, delay)) {
+                callback.onUpdate(hud, delay);
+            }
+        }
+    }
+
+    /**
+     * Forgets recorded toggle.
+     *
+     * @return Whether overlay visibility must be toggled.
+     */
+    boolean takeToggle() {
+        return toggle.compareAndSet(true, false);
+    }
+
+    void clear() {
+        updates.clear();
+        toggle.set(false);
+    }
+}
@@ -0,0 +1,95 @@
+package net.vganin.hud;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.pm.ServiceInfo;
+import android.os.Bundle;
+import android.util.Log;
+
+/**
+ * {@link HudService} settings declared as {@code meta-data} of service in AndroidManifest.
+ */
+final class ServiceConfig {
+
+    private static final String TAG = ServiceConfig.class.getSimpleName();
+
+    /**
+     * Size of slot bitmaps cache in kilobytes.
+     */
+    private static final int DEFAULT_BITMAP_CACHE_SIZE = 4096;
+
+    interface Factory {
+
+        ServiceConfig create(Context ctx);
+    }
+
+    /**
+     * Reads settings from meta-data of service declared in manifest.
+     */
+    static final Factory MANIFEST = new Factory() {
+        @Override
+        public ServiceConfig create(Context ctx) {
+            return read(ctx);
+        }
+    };
+
+    /**
+     * Whether overlay is updated once per display frame.
+     *
+     * @see HudService#META_FRAME_SYNC
+     */
+    final boolean frameSync;
+
+    /**
+     * Time in milliseconds one overlay update may take, zero if unlimited.
+     *
+     * @see HudService#META_FRAME_BUDGET
+     */
+    final int frameBudget;
+
+    /**
+     * Number of updates per second applied for single client, zero if unlimited.
+     *
+     * @see HudService#META_CLIENT_UPDATE_RATE
+     */
+    final int clientUpdateRate;
+
+    /**
+     * Size of slot bitmaps cache in bytes.
+     *
+     * @see HudService#META_BITMAP_CACHE_SIZE
+     */
+    final int bitmapCacheSize;
+
+    /**
+     * Whether overlay is owned by dedicated thread instead of main one.
+     *
+     * @see HudService#META_RENDER_THREAD
+     */
+    final boolean renderThread;
+
+    ServiceConfig(Bundle metaData) {
+        frameSync = metaData.getBoolean(HudService.META_FRAME_SYNC, false);
+        frameBudget = Math.max(metaData.getInt(HudService.META_FRAME_BUDGET, 0), 0);
+        clientUpdateRate = Math.max(metaData.getInt(HudService.META_CLIENT_UPDATE_RATE, 0), 0);
+        bitmapCacheSize = Math.max(metaData.getInt(HudService.META_BITMAP_CACHE_SIZE,
+                DEFAULT_BITMAP_CACHE_SIZE), 0) * 1024;
+        renderThread = metaData.getBoolean(HudService.META_RENDER_THREAD, false);
+    }
+
+    private static ServiceConfig read(Context ctx) {
+        Bundle metaData = null;
+        try {
+            ServiceInfo info = ctx.getPackageManager().getServiceInfo(
+                    new ComponentName(ctx, HudService.class), PackageManager.GET_META_DATA);
+            if (info != null) {
+                metaData = info.metaData;
+            }
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.e(TAG, "Error during service meta-data read", e);
+        }
+
+        return new ServiceConfig(metaData != null ? metaData : new Bundle());
+    }
+}
@@ -0,0 +1,269 @@
+package net.vganin.hud;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.text.TextUtils;
+import android.widget.RemoteViews;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * HUD of fixed layout whose views show single values, e.g. counters and short strings. Value of
+ * view with given id is called slot. Int slot sets progress of {@link android.widget.ProgressBar},
+ * level of {@link android.widget.ImageView} or text of {@link android.widget.TextView}, float and
+ * text slots set text of {@link android.widget.TextView}, bitmap slot sets image of
+ * {@link android.widget.ImageView}.
+ * <p>
+ * Unlike remote views, which are sent whole on every update, only slots whose values have changed
+ * are sent, and the service applies them to views directly. This makes updates many times smaller
+ * and cheaper to apply, so consider this class for HUDs updated frequently.
+ */
+public abstract class SlotHud extends Hud {
+
+    /**
+     * Slot values of HUD. Values which are not set keep their previous values.
+     */
+    public static final class Slots {
+
+        private int count = 0;
+        private int changedCount = 0;
+
+        private int[] ids = new int[4];
+        private int[] types = new int[4];
+        private int[] numbers = new int[4];
+        private CharSequence[] texts = new CharSequence[4];
+        private long[] bitmapIds = new long[4];
+        private Bitmap[] bitmaps = new Bitmap[4];
+        private int[] bitmapGenerations = new int[4];
+        private boolean[] changed = new boolean[4];
+
+        /**
+         * Buffer for bitmap pixels to be hashed.
+         */
+        private ByteBuffer pixels;
+
+        private Slots() {
+        }
+
+        public Slots setInt(int viewId, int value) {
+            set(viewId, HudUpdate.SLOT_INT, value, null, 0, null);
+            return this;
+        }
+
+        public Slots setFloat(int viewId, float value) {
+            set(viewId, HudUpdate.SLOT_FLOAT, Float.floatToIntBits(value), null, 0, null);
+            return this;
+        }
+
+        /**
+         * Sets text of view. Text is considered unchanged if only its spans have changed.
+         */
+        public Slots setText(int viewId, CharSequence value) {
+            set(viewId, HudUpdate.SLOT_TEXT, 0, value, 0, null);
+            return this;
+        }
+
+        /**
+         * Sets bitmap of {@link android.widget.ImageView}. Bitmaps are identified by content, and
+         * each distinct bitmap is sent to the service once, no matter how many slots and updates
+         * show it. Bitmap must not be modified after being set, unless it is set again.
+         */
+        public Slots setBitmap(int viewId, Bitmap value) {
+            int index = indexOf(viewId);
+
+            if (index >= 0 && types[index] == HudUpdate.SLOT_BITMAP && bitmaps[index] == value
+                    && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1
+                    && bitmapGenerations[index] == value.getGenerationId()) {
+                // Content hash is costly, so it is not recomputed for bitmap known to be intact
+                return this;
+            }
+
+            set(viewId, HudUpdate.SLOT_BITMAP, 0, null, contentHash(value), value);
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
+                bitmapGenerations[indexOf(viewId)] = value.getGenerationId();
+            }
+            return this;
+        }
+
+        private void set(int id, int type, int number, CharSequence text, long bitmapId,
+                Bitmap bitmap) {
+            int index = indexOf(id);
+
+            if (index < 0) {
+                index = append(id);
+            } else if (types[index] == type && numbers[index] == number
+                    && TextUtils.equals(texts[index], text) && bitmapIds[index] == bitmapId) {
+                bitmaps[index] = bitmap;
+                return;
+            }
+
+            types[index] = type;
+            numbers[index] = number;
+            texts[index] = text;
+            bitmapIds[index] = bitmapId;
+            bitmaps[index] = bitmap;
+
+            if (!changed[index]) {
+                changed[index] = true;
+                changedCount++;
+            }
+        }
+
+        private int indexOf(int id) {
+            for (int i = 0; i < count; i++) {
+                if (ids[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int append(int id) {
+            if (count == ids.length) {
+                int capacity = count * 2;
+                ids = copyOf(ids, capacity);
+                types = copyOf(types, capacity);
+                numbers = copyOf(numbers, capacity);
+                bitmapGenerations = copyOf(bitmapGenerations, capacity);
+
+                CharSequence[] newTexts = new CharSequence[capacity];
+                System.arraycopy(texts, 0, newTexts, 0, count);
+                texts = newTexts;
+
+                long[] newBitmapIds = new long[capacity];
+                System.arraycopy(bitmapIds, 0, newBitmapIds, 0, count);
+                bitmapIds = newBitmapIds;
+
+                Bitmap[] newBitmaps = new Bitmap[capacity];
+                System.arraycopy(bitmaps, 0, newBitmaps, 0, count);
+                bitmaps = newBitmaps;
+
+                boolean[] newChanged = new boolean[capacity];
+                System.arraycopy(changed, 0, newChanged, 0, count);
+                changed = newChanged;
+            }
+
+            ids[count] = id;
+            return count++;
+        }
+
+        /**
+         * Makes update of changed slots, or all of them, and marks all slots unchanged.
+         *
+         * @param uploadedBitmaps Ids of bitmaps sent to the service before. Bitmaps not in it are
+         *                        included into update and added to it.
+         */
+        private HudUpdate collect(String layoutPackage, int layoutId, boolean all,
+                Set<Long> uploadedBitmaps) {
+            HudUpdate update = HudUpdate.ofSlots(layoutPackage, layoutId,
+                    all ? count : changedCount);
+
+            int index = 0;
+            for (int i = 0; i < count; i++) {
+                if (all || changed[i]) {
+                    update.slotIds[index] = ids[i];
+                    update.slotTypes[index] = types[i];
+                    update.slotNumbers[index] = numbers[i];
+                    update.slotTexts[index] = texts[i];
+                    if (types[i] == HudUpdate.SLOT_BITMAP) {
+                        update.slotBitmapIds[index] = bitmapIds[i];
+                        if (uploadedBitmaps.add(bitmapIds[i])) {
+                            update.slotBitmaps[index] = bitmaps[i];
+                        }
+                    }
+                    index++;
+                }
+                changed[i] = false;
+            }
+            changedCount = 0;
+
+            return update;
+        }
+
+        /**
+         * Computes 64-bit FNV-1a hash of bitmap dimensions, config and pixels.
+         */
+        private long contentHash(Bitmap bitmap) {
+            int size = bitmap.getRowBytes() * bitmap.getHeight();
+            if (pixels == null || pixels.capacity() < size) {
+                pixels = ByteBuffer.allocate(size);
+            }
+            pixels.clear();
+            bitmap.copyPixelsToBuffer(pixels);
+
+            long hash = FNV_OFFSET_BASIS;
+            hash = (hash ^ bitmap.getWidth()) * FNV_PRIME;
+            hash = (hash ^ bitmap.getHeight()) * FNV_PRIME;
+            hash = (hash ^ bitmap.getConfig().ordinal()) * FNV_PRIME;
+
+            byte[] data = pixels.array();
+            for (int i = 0; i < size; i++) {
+                hash = (hash ^ (data[i] & 0xff)) * FNV_PRIME;
+            }
+            return hash;
+        }
+
+        private static int[] copyOf(int[] array, int capacity) {
+            int[] copy = new int[capacity];
+            System.arraycopy(array, 0, copy, 0, array.length);
+            return copy;
+        }
+    }
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Number of bitmap ids remembered as sent. When exceeded, ids are forgotten and bitmaps are
+     * sent again when shown.
+     */
+    private static final int MAX_UPLOADED_BITMAPS = 64;
+
+    private final Slots slots = new Slots();
+
+    /**
+     * Ids of bitmaps sent to the service since it has last got full update.
+     */
+    private final Set<Long> uploadedBitmaps = new HashSet<>();
+
+    private final String layoutPackage;
+    private final int layoutId;
+
+    /**
+     * @param ctx Context.
+     * @param layoutId Layout of this HUD. Must be of context package.
+     */
+    public SlotHud(Context ctx, int layoutId) {
+        this.layoutPackage = ctx.getPackageName();
+        this.layoutId = layoutId;
+    }
+
+    /**
+     * Sets slot values to show. Called whenever this HUD is due for update.
+     *
+     * @param slots Slot values.
+     */
+    public abstract void onUpdate(Slots slots);
+
+    /**
+     * Gets remote view of this HUD layout with no slot values applied. Not used to update HUD.
+     */
+    @Override
+    public final RemoteViews getUpdate() {
+        return new RemoteViews(layoutPackage, layoutId);
+    }
+
+    @Override
+    HudUpdate makeUpdate(boolean full) {
+        if (full || uploadedBitmaps.size() > MAX_UPLOADED_BITMAPS) {
+            uploadedBitmaps.clear();
+        }
+
+        onUpdate(slots);
+        return slots.collect(full ? layoutPackage : null, layoutId, full, uploadedBitmaps);
+    }
+}
@@ -0,0 +1,41 @@
+package net.vganin.hud;
+
+import android.content.Context;
+
+/**
+ * HUD showing {@link HudStats} of this process.
+ */
+public class StatsHud extends DebugTextHud {
+
+    private final StringBuilder text = new StringBuilder();
+
+    public StatsHud(Context ctx) {
+        super(ctx);
+    }
+
+    @Override
+    public CharSequence getMessageUpdate() {
+        HudStats stats = HudManager.getStats();
+
+        text.setLength(0);
+        append("startup, us: ", stats.getStartupTime()).append('\n');
+        append("lateness, us: ", stats.getUpdateLateness()).append('\n');
+        append("update, us: ", stats.getUpdateTime()).append('\n');
+        append("size, B: ", stats.getUpdateSize()).append('\n');
+        append("send delay, us: ", stats.getSendDelay()).append('\n');
+        append("apply latency, us: ", stats.getApplyLatency()).append('\n');
+        append("apply, us: ", stats.getApplyTime()).append('\n');
+        append("layout, us: ", stats.getLayoutTime()).append('\n');
+        append("window layout, us: ", stats.getWindowLayoutTime())
+                .append(" windows=").append(stats.getWindowCount());
+
+        return text.toString();
+    }
+
+    private StringBuilder append(String name, HudHistogram histogram) {
+        return text.append(name)
+                .append("p50=").append(histogram.getPercentile(0.5))
+                .append(" p99=").append(histogram.getPercentile(0.99))
+                .append(" max=").append(histogram.getMax());
+    }
+}
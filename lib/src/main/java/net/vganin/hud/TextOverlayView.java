@@ -0,0 +1,102 @@
+package net.vganin.hud;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.os.IBinder;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.DisplayMetrics;
+import android.view.View;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Single view drawing texts of all canvas rendered HUDs one under another. Text is laid out once
+ * per update, so neither views nor layout passes are needed per HUD. Looks like
+ * {@code debug_text_hud} layout.
+ */
+final class TextOverlayView extends View {
+
+    private static final int TEXT_COLOR = 0xff119911;
+    private static final int BACKGROUND_COLOR = 0x55000000;
+    private static final int TEXT_SIZE_SP = 14;
+
+    private final TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+
+    /**
+     * Laid out texts by HUD tokens, in order of drawing.
+     */
+    private final Map<IBinder, Layout> layouts = new LinkedHashMap<>();
+
+    private final int maxWidth;
+
+    private int contentWidth = 0;
+    private int contentHeight = 0;
+
+    TextOverlayView(Context ctx) {
+        super(ctx);
+
+        DisplayMetrics metrics = ctx.getResources().getDisplayMetrics();
+        paint.setColor(TEXT_COLOR);
+        paint.setTextSize(TEXT_SIZE_SP * metrics.scaledDensity);
+        maxWidth = metrics.widthPixels;
+
+        setBackgroundColor(BACKGROUND_COLOR);
+    }
+
+    boolean isEmpty() {
+        return layouts.isEmpty();
+    }
+
+    void setText(IBinder token, CharSequence text) {
+        int width = Math.min((int) Math.ceil(Layout.getDesiredWidth(text, paint)), maxWidth);
+        layouts.put(token, new StaticLayout(text, paint, width, Layout.Alignment.ALIGN_NORMAL,
+                1, 0, false));
+        onContentChanged();
+    }
+
+    void remove(IBinder token) {
+        if (layouts.remove(token) != null) {
+            onContentChanged();
+        }
+    }
+
+    private void onContentChanged() {
+        int width = 0;
+        int height = 0;
+        for (Layout layout : layouts.values()) {
+            width = Math.max(width, layout.getWidth());
+            height += layout.getHeight();
+        }
+
+        if (width != contentWidth || height != contentHeight) {
+            contentWidth = width;
+            contentHeight = height;
+            requestLayout();
+        }
+        invalidate();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        setMeasuredDimension(
+                resolveSize(contentWidth + getPaddingLeft() + getPaddingRight(),
+                        widthMeasureSpec),
+                resolveSize(contentHeight + getPaddingTop() + getPaddingBottom(),
+                        heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        for (Layout layout : layouts.values()) {
+            layout.draw(canvas);
+            canvas.translate(0, layout.getHeight());
+        }
+        canvas.restore();
+    }
+}
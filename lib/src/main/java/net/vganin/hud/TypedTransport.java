@@ -0,0 +1,80 @@
+package net.vganin.hud;
+
+import android.os.IBinder;
+import android.os.RemoteException;
+
+import java.util.List;
+
+/**
+ * Transport calling {@link IHudService} methods. Unlike {@link MessengerTransport} it does not
+ * wrap updates into {@link android.os.Bundle}s, so neither side pays for key marshalling and map
+ * allocation.
+ */
+final class TypedTransport implements HudTransport {
+
+    /**
+     * Interface descriptor of {@link IHudService}. Spelled out as class name may be obfuscated.
+     */
+    private static final String DESCRIPTOR = "net.vganin.hud.IHudService";
+
+    private final IHudService service;
+    private final IHudClient client;
+
+    /**
+     * @param target Service binder. Must implement {@link IHudService}.
+     * @param listener Listener or {@code null} if reports are not needed.
+     */
+    TypedTransport(IBinder target, final ServiceListener listener) {
+        service = IHudService.Stub.asInterface(target);
+        client = listener == null ? null : new IHudClient.Stub() {
+            @Override
+            public void onConsumed(List<IBinder> tokens, int[] sequences) {
+                for (int i = 0; i < tokens.size(); i++) {
+                    listener.onConsumed(tokens.get(i), sequences[i]);
+                }
+            }
+
+            @Override
+            public void onVisibilityChanged(boolean visible) {
+                listener.onVisibilityChanged(visible);
+            }
+
+            @Override
+            public void onResyncRequired(IBinder token) {
+                listener.onResyncRequired(token);
+            }
+        };
+    }
+
+    /**
+     * Checks whether binder implements {@link IHudService}.
+     */
+    static boolean isSupportedBy(IBinder target) {
+        try {
+            return DESCRIPTOR.equals(target.getInterfaceDescriptor());
+        } catch (RemoteException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void update(IBinder token, HudUpdate update, int sequence) throws RemoteException {
+        service.update(token, update, sequence, client);
+    }
+
+    @Override
+    public void updateBatch(List<IBinder> tokens, List<HudUpdate> updates, int[] sequences)
+            throws RemoteException {
+        service.updateBatch(tokens, updates, sequences, client);
+    }
+
+    @Override
+    public void remove(IBinder token) throws RemoteException {
+        service.remove(token);
+    }
+
+    @Override
+    public void toggleVisibility() throws RemoteException {
+        service.toggleVisibility();
+    }
+}
@@ -0,0 +1,73 @@
+package net.vganin.hud;
+
+import android.util.SparseArray;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Views inflated from remote views which are not shown anymore, by packages and layouts they were
+ * inflated from. Lets remote views of new HUDs be reapplied to existing views instead of inflating
+ * new ones.
+ */
+final class ViewPool {
+
+    private final int maxPerLayout;
+
+    private final Map<String, SparseArray<List<View>>> views = new HashMap<>();
+
+    /**
+     * @param maxPerLayout Maximum number of views kept per layout.
+     */
+    ViewPool(int maxPerLayout) {
+        this.maxPerLayout = maxPerLayout;
+    }
+
+    /**
+     * Takes view inflated from given layout out of the pool.
+     *
+     * @return View or {@code null} if there is none.
+     */
+    View acquire(String layoutPackage, int layoutId) {
+        SparseArray<List<View>> packageViews = views.get(layoutPackage);
+        if (packageViews == null) {
+            return null;
+        }
+
+        List<View> layoutViews = packageViews.get(layoutId);
+        if (layoutViews == null || layoutViews.isEmpty()) {
+            return null;
+        }
+
+        return layoutViews.remove(layoutViews.size() - 1);
+    }
+
+    /**
+     * Puts view to the pool unless the pool has enough views of its layout. View must be detached
+     * from its parent.
+     */
+    void release(String layoutPackage, int layoutId, View view) {
+        SparseArray<List<View>> packageViews = views.get(layoutPackage);
+        if (packageViews == null) {
+            packageViews = new SparseArray<>();
+            views.put(layoutPackage, packageViews);
+        }
+
+        List<View> layoutViews = packageViews.get(layoutId);
+        if (layoutViews == null) {
+            layoutViews = new ArrayList<>(maxPerLayout);
+            packageViews.put(layoutId, layoutViews);
+        }
+
+        if (layoutViews.size() < maxPerLayout) {
+            layoutViews.add(view);
+        }
+    }
+
+    void clear() {
+        views.clear();
+    }
+}
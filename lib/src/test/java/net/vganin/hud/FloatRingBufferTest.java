@@ -0,0 +1,64 @@
+package net.vganin.hud;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FloatRingBufferTest {
+
+    private final FloatRingBuffer buffer = new FloatRingBuffer(3);
+
+    @Test
+    public void keepsValuesUpToCapacity() {
+        buffer.append(new float[]{1, 2});
+
+        assertEquals(2, buffer.size());
+        assertEquals(1, buffer.get(0), 0);
+        assertEquals(2, buffer.get(1), 0);
+    }
+
+    @Test
+    public void oldestValuesAreOverwritten() {
+        buffer.append(new float[]{1, 2, 3, 4, 5});
+
+        assertEquals(3, buffer.size());
+        assertEquals(5, buffer.count());
+        assertEquals(3, buffer.get(0), 0);
+        assertEquals(5, buffer.get(2), 0);
+    }
+
+    @Test
+    public void copySinceReturnsValuesAppendedAfterCount() {
+        buffer.append(new float[]{1, 2});
+        long count = buffer.count();
+        buffer.append(3);
+
+        assertArrayEquals(new float[]{3}, buffer.copySince(count), 0);
+    }
+
+    @Test
+    public void copySinceSkipsOverwrittenValues() {
+        buffer.append(new float[]{1, 2, 3, 4, 5});
+
+        assertArrayEquals(new float[]{3, 4, 5}, buffer.copySince(0), 0);
+    }
+
+    @Test
+    public void equalValuesAreCountedEach() {
+        buffer.append(60);
+        long count = buffer.count();
+        buffer.append(60);
+
+        assertArrayEquals(new float[]{60}, buffer.copySince(count), 0);
+    }
+
+    @Test
+    public void clearEmptiesBuffer() {
+        buffer.append(new float[]{1, 2});
+        buffer.clear();
+
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.copySince(0).length);
+    }
+}
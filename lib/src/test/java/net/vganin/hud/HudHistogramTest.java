@@ -0,0 +1,97 @@
+package net.vganin.hud;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class HudHistogramTest {
+
+    private final HudHistogram histogram = new HudHistogram();
+
+    @Test
+    public void emptyHistogramReportsZeros() {
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0.5));
+    }
+
+    @Test
+    public void percentileIsUpperBoundOfItsBucket() {
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, histogram.getMean());
+        assertEquals(1, histogram.getPercentile(0));
+        assertEquals(63, histogram.getPercentile(0.5));
+    }
+
+    @Test
+    public void percentileDoesNotExceedMax() {
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(100, histogram.getPercentile(0.99));
+        assertEquals(100, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void fractionIsClamped() {
+        histogram.record(5);
+        histogram.record(500);
+
+        assertEquals(7, histogram.getPercentile(-1));
+        assertEquals(500, histogram.getPercentile(2));
+    }
+
+    @Test
+    public void zerosAndNegativesFallIntoFirstBucket() {
+        histogram.record(0);
+        histogram.record(-10);
+        histogram.record(1000);
+
+        assertEquals(0, histogram.getPercentile(0.5));
+        assertEquals(1000, histogram.getMax());
+        assertEquals(333, histogram.getMean());
+    }
+
+    @Test
+    public void resetClearsValues() {
+        histogram.record(42);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws InterruptedException {
+        final int threadCount = 4;
+        final int recordCount = 10000;
+
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int value = i + 1;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < recordCount; j++) {
+                        histogram.record(value);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(threadCount * recordCount, histogram.getCount());
+        assertEquals(threadCount, histogram.getMax());
+        assertEquals(threadCount, histogram.getPercentile(1));
+    }
+}
@@ -0,0 +1,287 @@
+package net.vganin.hud;
+
+import android.os.IBinder;
+import android.widget.RemoteViews;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.internal.ShadowExtractor;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class HudMessengerTest {
+
+    private static final String UPDATE = "update";
+    private static final String REMOVE = "remove";
+
+    private final RecordingService service = new RecordingService();
+    private HudMessenger messenger;
+
+    @Before
+    public void setUp() {
+        messenger = new HudMessenger(service, 0, 0, new HudMessenger.Listener() {
+            @Override
+            public void onVisibilityChanged(boolean visible) {
+            }
+
+            @Override
+            public void onResyncRequired(IBinder token) {
+            }
+        });
+    }
+
+    @Test
+    public void updateMadeDuringRemovalIsNotSent() throws InterruptedException {
+        final BlockingHud hud = new BlockingHud();
+
+        Thread updater = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                messenger.update(hud);
+            }
+        });
+        updater.start();
+
+        hud.entered.await();
+        messenger.remove(hud);
+        hud.released.countDown();
+        updater.join();
+        runSender();
+
+        assertEquals(list(REMOVE), service.eventsOf(hud.mToken));
+    }
+
+    @Test
+    public void addedBackHudIsUpdated() {
+        Hud hud = new TextHud();
+
+        messenger.update(hud);
+        runSender();
+        messenger.remove(hud);
+        messenger.add(hud);
+        messenger.update(hud);
+        runSender();
+
+        assertEquals(list(UPDATE, REMOVE, UPDATE), service.eventsOf(hud.mToken));
+    }
+
+    @Test
+    public void identicalUpdateIsSkipped() {
+        Hud hud = new FixedHud(HudUpdate.ofText("text"));
+
+        messenger.update(hud);
+        runSender();
+        messenger.update(hud);
+        runSender();
+
+        assertEquals(list(UPDATE), service.eventsOf(hud.mToken));
+    }
+
+    @Test
+    public void identicalGraphDeltaIsSent() {
+        Hud hud = new FixedHud(HudUpdate.ofGraph(10, 0, 100, false, new float[]{60}));
+
+        messenger.update(hud);
+        runSender();
+        messenger.update(hud);
+        runSender();
+
+        assertEquals(list(UPDATE, UPDATE), service.eventsOf(hud.mToken));
+    }
+
+    @Test
+    public void noUpdateFollowsRemovalUnderConcurrentUpdates() throws InterruptedException {
+        final int hudCount = 50;
+        final int updaterCount = 4;
+
+        final List<Hud> huds = new ArrayList<>();
+        for (int i = 0; i < hudCount; i++) {
+            huds.add(new TextHud());
+        }
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger removed = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < updaterCount; i++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    await(start);
+                    while (removed.get() < hudCount) {
+                        for (Hud hud : huds) {
+                            messenger.update(hud);
+                        }
+                    }
+                }
+            }));
+        }
+
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                await(start);
+                for (Hud hud : huds) {
+                    messenger.remove(hud);
+                    removed.incrementAndGet();
+                    Thread.yield();
+                }
+            }
+        }));
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        runSender();
+
+        for (Hud hud : huds) {
+            List<String> events = service.eventsOf(hud.mToken);
+            assertEquals(REMOVE, events.get(events.size() - 1));
+            assertEquals(1, count(events, REMOVE));
+        }
+    }
+
+    /**
+     * Runs messages posted to the sender thread in order they were posted.
+     */
+    private static void runSender() {
+        ShadowLooper looper =
+                (ShadowLooper) ShadowExtractor.extract(HudMessenger.getSenderLooper());
+        looper.runToEndOfTasks();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static List<String> list(String... events) {
+        List<String> list = new ArrayList<>();
+        for (String event : events) {
+            list.add(event);
+        }
+        return list;
+    }
+
+    private static int count(List<String> events, String event) {
+        int count = 0;
+        for (String e : events) {
+            if (e.equals(event)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static class TextHud extends Hud {
+
+        private final AtomicInteger version = new AtomicInteger();
+
+        @Override
+        public RemoteViews getUpdate() {
+            return null;
+        }
+
+        @Override
+        HudUpdate makeUpdate(boolean full) {
+            // Each update differs, so none is skipped as duplicate
+            return HudUpdate.ofText("update " + version.incrementAndGet());
+        }
+    }
+
+    private static class FixedHud extends Hud {
+
+        private final HudUpdate update;
+
+        FixedHud(HudUpdate update) {
+            this.update = update;
+        }
+
+        @Override
+        public RemoteViews getUpdate() {
+            return null;
+        }
+
+        @Override
+        HudUpdate makeUpdate(boolean full) {
+            return update;
+        }
+    }
+
+    private static class BlockingHud extends TextHud {
+
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+
+        @Override
+        HudUpdate makeUpdate(boolean full) {
+            entered.countDown();
+            await(released);
+            return super.makeUpdate(full);
+        }
+    }
+
+    /**
+     * Service recording calls by HUD tokens in order they are made.
+     */
+    private static class RecordingService extends IHudService.Stub {
+
+        private final Map<IBinder, List<String>> events = new HashMap<>();
+
+        @Override
+        public void update(IBinder token, HudUpdate update, int sequence, IHudClient client) {
+            record(token, UPDATE);
+        }
+
+        @Override
+        public void updateBatch(List<IBinder> tokens, List<HudUpdate> updates, int[] sequences,
+                IHudClient client) {
+            for (IBinder token : tokens) {
+                record(token, UPDATE);
+            }
+        }
+
+        @Override
+        public void remove(IBinder token) {
+            record(token, REMOVE);
+        }
+
+        @Override
+        public void toggleVisibility() {
+        }
+
+        synchronized List<String> eventsOf(IBinder token) {
+            List<String> tokenEvents = events.get(token);
+            return tokenEvents != null ? new ArrayList<>(tokenEvents) : new ArrayList<String>();
+        }
+
+        private synchronized void record(IBinder token, String event) {
+            List<String> tokenEvents = events.get(token);
+            if (tokenEvents == null) {
+                tokenEvents = new ArrayList<>();
+                events.put(token, tokenEvents);
+            }
+            tokenEvents.add(event);
+        }
+    }
+}
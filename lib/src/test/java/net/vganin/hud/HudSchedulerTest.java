@@ -0,0 +1,295 @@
+package net.vganin.hud;
+
+import android.widget.RemoteViews;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HudSchedulerTest {
+
+    private static final long TIMEOUT = 1000;
+    private static final long TOLERANCE = 50;
+
+    /**
+     * Period of HUDs in load shedding tests, and ticks their updates are made late by.
+     */
+    private static final long PERIOD = 10;
+    private static final long LATENESS = 2;
+
+    private final List<Hud> updated = new ArrayList<>();
+    private volatile CountDownLatch latch = new CountDownLatch(1);
+
+    private final HudScheduler.Callback callback = new HudScheduler.Callback() {
+        @Override
+        public void onDue(Hud hud) {
+            synchronized (updated) {
+                updated.add(hud);
+            }
+            latch.countDown();
+        }
+    };
+
+    private final ManualClock clock = new ManualClock();
+
+    private HudScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new HudScheduler(callback);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        scheduler.stop();
+    }
+
+    @Test
+    public void periodicHudIsUpdatedRepeatedly() throws InterruptedException {
+        latch = new CountDownLatch(3);
+        scheduler.schedule(new TestHud(), 0, 20, Hud.PRIORITY_NORMAL, TOLERANCE);
+
+        assertTrue(latch.await(TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void singleUpdateHappensOnce() {
+        useManualClock();
+        Hud hud = new TestHud();
+        scheduler.schedule(hud, 0, Hud.NO_PERIODIC_UPDATE, Hud.PRIORITY_NORMAL, TOLERANCE);
+
+        assertEquals(Arrays.asList(hud), runAt(1));
+        assertTrue(runAt(100).isEmpty());
+    }
+
+    @Test
+    public void cancelledHudIsNotUpdated() {
+        useManualClock();
+        Hud hud = new TestHud();
+        scheduler.schedule(hud, 50, 20, Hud.PRIORITY_NORMAL, TOLERANCE);
+        scheduler.cancel(hud);
+
+        assertTrue(runAt(100).isEmpty());
+    }
+
+    @Test
+    public void rescheduledHudIsUpdatedAtNewDeadline() {
+        useManualClock();
+        Hud hud = new TestHud();
+        scheduler.schedule(hud, 10000, Hud.NO_PERIODIC_UPDATE, Hud.PRIORITY_NORMAL, TOLERANCE);
+        scheduler.schedule(hud, 0, Hud.NO_PERIODIC_UPDATE, Hud.PRIORITY_NORMAL, TOLERANCE);
+
+        assertEquals(Arrays.asList(hud), runAt(1));
+    }
+
+    @Test
+    public void requestedUpdateKeepsPeriod() {
+        useManualClock();
+        Hud hud = new TestHud();
+        scheduler.schedule(hud, 0, PERIOD * HudScheduler.TICK, Hud.PRIORITY_NORMAL, TOLERANCE);
+        assertEquals(Arrays.asList(hud), runAt(1));
+
+        // Moves deadline of tick 11 earlier
+        scheduler.requestUpdate(hud, 5 * HudScheduler.TICK, Hud.PRIORITY_NORMAL, TOLERANCE);
+        assertTrue(runAt(5).isEmpty());
+        assertEquals(Arrays.asList(hud), runAt(6));
+
+        // Does not move deadline of tick 16 later
+        scheduler.requestUpdate(hud, 20 * HudScheduler.TICK, Hud.PRIORITY_NORMAL, TOLERANCE);
+        assertTrue(runAt(15).isEmpty());
+        assertEquals(Arrays.asList(hud), runAt(16));
+        assertTrue(runAt(25).isEmpty());
+        assertEquals(Arrays.asList(hud), runAt(26));
+    }
+
+    @Test
+    public void requestedUpdateOfUnscheduledHudHappensOnce() {
+        useManualClock();
+        Hud hud = new TestHud();
+        scheduler.requestUpdate(hud, 3 * HudScheduler.TICK, Hud.PRIORITY_NORMAL, TOLERANCE);
+
+        assertTrue(runAt(2).isEmpty());
+        assertEquals(Arrays.asList(hud), runAt(3));
+        assertTrue(runAt(100).isEmpty());
+    }
+
+    @Test
+    public void dueHudsAreUpdatedInPriorityOrder() {
+        useManualClock();
+        Hud low = new TestHud();
+        Hud normal = new TestHud();
+        Hud critical = new TestHud();
+
+        scheduler.schedule(low, 0, Hud.NO_PERIODIC_UPDATE, Hud.PRIORITY_LOW, TOLERANCE);
+        scheduler.schedule(normal, 0, Hud.NO_PERIODIC_UPDATE, Hud.PRIORITY_NORMAL, TOLERANCE);
+        scheduler.schedule(critical, 0, Hud.NO_PERIODIC_UPDATE, Hud.PRIORITY_CRITICAL, TOLERANCE);
+
+        assertEquals(Arrays.asList(critical, normal, low), runAt(1));
+    }
+
+    @Test
+    public void dueHudsOfSamePriorityAreUpdatedInDeadlineOrder() {
+        useManualClock();
+        Hud tolerant = new TestHud();
+        Hud urgent = new TestHud();
+
+        scheduler.schedule(tolerant, 0, Hud.NO_PERIODIC_UPDATE, Hud.PRIORITY_NORMAL, 1000);
+        scheduler.schedule(urgent, 0, Hud.NO_PERIODIC_UPDATE, Hud.PRIORITY_NORMAL, 10);
+
+        assertEquals(Arrays.asList(urgent, tolerant), runAt(1));
+    }
+
+    @Test
+    public void lateUpdatesStretchLowPriorityPeriods() {
+        assertStretchedWhileLate(Hud.PRIORITY_LOW, 0);
+    }
+
+    @Test
+    public void lateUpdatesStretchNormalPriorityPeriodsAboveNormalPriorityShedLevel() {
+        assertStretchedWhileLate(Hud.PRIORITY_NORMAL, HudScheduler.NORMAL_PRIORITY_SHED_LEVEL);
+    }
+
+    @Test
+    public void lateUpdatesDoNotStretchCriticalPriorityPeriods() {
+        assertStretchedWhileLate(Hud.PRIORITY_CRITICAL, HudScheduler.MAX_SHED_LEVEL);
+    }
+
+    @Test
+    public void periodsAreRestoredAfterRecoveryPasses() {
+        useManualClock();
+        Hud hud = new TestHud();
+        scheduler.schedule(hud, 0, PERIOD * HudScheduler.TICK, Hud.PRIORITY_LOW,
+                HudScheduler.TICK);
+
+        // Two late updates raise shed level to 2
+        long tick = 1 + LATENESS;
+        assertEquals(Arrays.asList(hud), runAt(tick));
+        tick += 2 * PERIOD + LATENESS;
+        assertEquals(Arrays.asList(hud), runAt(tick));
+
+        // Each level is lowered after given number of updates on time
+        for (long stretch = 4; stretch >= 1; stretch /= 2) {
+            for (int pass = 0; pass < HudScheduler.RECOVERY_PASSES; pass++) {
+                String message = "Stretch " + stretch + ", pass " + pass;
+                assertTrue(message, runAt(tick + stretch * PERIOD - 1).isEmpty());
+                tick += stretch * PERIOD;
+                assertEquals(message, Arrays.asList(hud), runAt(tick));
+            }
+        }
+    }
+
+    @Test
+    public void dueHudsAreUpdatedInOrderAtEachShedLevel() {
+        useManualClock();
+        Hud low = new TestHud();
+        Hud tolerant = new TestHud();
+        Hud urgent = new TestHud();
+        Hud critical = new TestHud();
+
+        long period = PERIOD * HudScheduler.TICK;
+        scheduler.schedule(low, 0, period, Hud.PRIORITY_LOW, HudScheduler.TICK);
+        scheduler.schedule(tolerant, 0, period, Hud.PRIORITY_NORMAL, 1000);
+        scheduler.schedule(urgent, 0, period, Hud.PRIORITY_NORMAL, HudScheduler.TICK);
+        scheduler.schedule(critical, 0, period, Hud.PRIORITY_CRITICAL, HudScheduler.TICK);
+
+        long tick = 0;
+        for (int level = 0; level <= HudScheduler.MAX_SHED_LEVEL; level++) {
+            // Longest stretched period has passed, so all HUDs are due, and late
+            tick += (PERIOD << HudScheduler.MAX_SHED_LEVEL) + LATENESS;
+            assertEquals("Level " + level, Arrays.asList(critical, urgent, tolerant, low),
+                    runAt(tick));
+        }
+    }
+
+    @Test
+    public void pausedSchedulerHoldsUpdates() throws InterruptedException {
+        scheduler.setPaused(true);
+        scheduler.schedule(new TestHud(), 0, 20, Hud.PRIORITY_NORMAL, TOLERANCE);
+
+        assertFalse(latch.await(100, TimeUnit.MILLISECONDS));
+
+        scheduler.setPaused(false);
+        assertTrue(latch.await(TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Makes each update late starting from the first one, and checks that update period is
+     * stretched at each shed level above given one.
+     */
+    private void assertStretchedWhileLate(int priority, int stretchedAbove) {
+        useManualClock();
+        Hud hud = new TestHud();
+        scheduler.schedule(hud, 0, PERIOD * HudScheduler.TICK, priority, HudScheduler.TICK);
+
+        // Due at first tick
+        long tick = 1 + LATENESS;
+        assertEquals(Arrays.asList(hud), runAt(tick));
+
+        for (int level = 1; level <= HudScheduler.MAX_SHED_LEVEL + 1; level++) {
+            int stretchLevel = Math.min(level, HudScheduler.MAX_SHED_LEVEL) - stretchedAbove;
+            long period = PERIOD << Math.max(stretchLevel, 0);
+
+            String message = "Level " + level;
+            assertTrue(message, runAt(tick + period - 1).isEmpty());
+            tick += period + LATENESS;
+            assertEquals(message, Arrays.asList(hud), runAt(tick));
+        }
+    }
+
+    /**
+     * Replaces scheduler by one whose time is moved by {@link #runAt(long)} only. Its thread is
+     * kept paused, so that passes run on test thread.
+     */
+    private void useManualClock() {
+        scheduler = new HudScheduler(callback, clock);
+        scheduler.setPaused(true);
+    }
+
+    /**
+     * Moves time to given tick and runs pass of manually clocked scheduler.
+     *
+     * @return HUDs updated in the pass.
+     */
+    private List<Hud> runAt(long tick) {
+        clock.nanos = TimeUnit.MILLISECONDS.toNanos(tick * HudScheduler.TICK);
+
+        int updatedBefore = updated().size();
+        scheduler.runDue();
+        List<Hud> all = updated();
+        return all.subList(updatedBefore, all.size());
+    }
+
+    private List<Hud> updated() {
+        synchronized (updated) {
+            return new ArrayList<>(updated);
+        }
+    }
+
+    private static class ManualClock implements HudScheduler.Clock {
+
+        volatile long nanos;
+
+        @Override
+        public long nanoTime() {
+            return nanos;
+        }
+    }
+
+    private static class TestHud extends Hud {
+
+        @Override
+        public RemoteViews getUpdate() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package net.vganin.hud;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.HandlerThread;
+import android.os.RemoteException;
+import android.widget.RemoteViews;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.internal.ShadowExtractor;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.Scheduler;
+import org.robolectric.util.ServiceController;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, shadows = ShadowRealRemoteViews.class)
+public class HudServiceRenderThreadTest {
+
+    private ServiceController<HudService> controller;
+    private IHudService service;
+    private ShadowLooper renderLooper;
+
+    private static final int TEXT = 0;
+    private static final int VIEWS = 1;
+    private static final int SLOTS = 2;
+
+    @Before
+    public void setUp() {
+        HudStats.INSTANCE.reset();
+        ShadowLooper.pauseMainLooper();
+
+        controller = Robolectric.buildService(HudService.class).attach();
+        controller.get().configFactory = new ServiceConfig.Factory() {
+            @Override
+            public ServiceConfig create(Context ctx) {
+                Bundle metaData = new Bundle();
+                metaData.putBoolean(HudService.META_RENDER_THREAD, true);
+                return new ServiceConfig(metaData);
+            }
+        };
+        controller.create();
+
+        service = IHudService.Stub.asInterface(
+                controller.get().onBind(new Intent(Const.ACTION_BIND_TYPED)));
+        renderLooper = findRenderLooper();
+
+        // Overlay window is set up on render thread once
+        renderLooper.runToEndOfTasks();
+    }
+
+    @After
+    public void tearDown() {
+        controller.destroy();
+        renderLooper.runToEndOfTasks();
+        ShadowLooper.unPauseMainLooper();
+    }
+
+    @Test
+    public void mainThreadWorkDoesNotGrowWithTextHudCount() throws RemoteException {
+        assertMainThreadWorkDoesNotGrow(TEXT);
+    }
+
+    @Test
+    public void mainThreadWorkDoesNotGrowWithViewsHudCount() throws RemoteException {
+        assertMainThreadWorkDoesNotGrow(VIEWS);
+    }
+
+    @Test
+    public void mainThreadWorkDoesNotGrowWithSlotHudCount() throws RemoteException {
+        assertMainThreadWorkDoesNotGrow(SLOTS);
+    }
+
+    private void assertMainThreadWorkDoesNotGrow(int kind) throws RemoteException {
+        int tasks = mainThreadTasksOf(1, kind);
+
+        assertEquals(tasks, mainThreadTasksOf(10, kind));
+        assertEquals(tasks, mainThreadTasksOf(100, kind));
+    }
+
+    /**
+     * Shows given number of HUDs of given kind and counts tasks they left to main thread.
+     */
+    private int mainThreadTasksOf(int hudCount, int kind) throws RemoteException {
+        Scheduler mainScheduler = Robolectric.getForegroundThreadScheduler();
+        int tasksBefore = mainScheduler.size();
+        long appliedBefore = HudStats.INSTANCE.getApplyTime().getCount();
+
+        for (int i = 0; i < hudCount; i++) {
+            service.update(new Binder(), updateOf(kind, "HUD " + i), Const.NO_SEQUENCE, null);
+        }
+        renderLooper.runToEndOfTasks();
+
+        assertEquals(hudCount, HudStats.INSTANCE.getApplyTime().getCount() - appliedBefore);
+        return mainScheduler.size() - tasksBefore;
+    }
+
+    private static HudUpdate updateOf(int kind, String text) {
+        String packageName = RuntimeEnvironment.application.getPackageName();
+
+        switch (kind) {
+            case VIEWS:
+                RemoteViews views = new RemoteViews(packageName, R.layout.debug_text_hud);
+                views.setTextViewText(R.id.debug_text, text);
+                return HudUpdate.ofViews(views);
+            case SLOTS:
+                HudUpdate slots = HudUpdate.ofSlots(packageName, R.layout.debug_text_hud, 1);
+                slots.slotIds[0] = R.id.debug_text;
+                slots.slotTypes[0] = HudUpdate.SLOT_TEXT;
+                slots.slotTexts[0] = text;
+                return slots;
+            default:
+                return HudUpdate.ofText(text);
+        }
+    }
+
+    private static ShadowLooper findRenderLooper() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread instanceof HandlerThread
+                    && HudService.class.getSimpleName().equals(thread.getName())) {
+                return (ShadowLooper) ShadowExtractor.extract(
+                        ((HandlerThread) thread).getLooper());
+            }
+        }
+        throw new AssertionError("Render thread is not running");
+    }
+}
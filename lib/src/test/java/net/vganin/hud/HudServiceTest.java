@@ -0,0 +1,257 @@
+package net.vganin.hud;
+
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Binder;
+import android.os.IBinder;
+import android.os.RemoteException;
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.WindowManager;
+import android.widget.RemoteViews;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.internal.ShadowExtractor;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.shadows.ShadowWindowManagerImpl;
+import org.robolectric.util.Scheduler;
+import org.robolectric.util.ServiceController;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, shadows = ShadowRealRemoteViews.class)
+public class HudServiceTest {
+
+    private ServiceController<HudService> controller;
+    private IHudService service;
+
+    @Before
+    public void setUp() {
+        HudStats.INSTANCE.reset();
+        controller = Robolectric.buildService(HudService.class).attach().create();
+        service = IHudService.Stub.asInterface(
+                controller.get().onBind(new Intent(Const.ACTION_BIND_TYPED)));
+    }
+
+    @After
+    public void tearDown() {
+        controller.destroy();
+    }
+
+    @Test
+    public void viewIsInflatedOncePerHud() throws RemoteException {
+        IBinder first = new Binder();
+        IBinder second = new Binder();
+
+        for (int i = 0; i < 50; i++) {
+            update(first);
+            update(second);
+        }
+
+        assertEquals(2, HudStats.INSTANCE.getInflatedViewCount());
+    }
+
+    @Test
+    public void viewOfRemovedHudIsReused() throws RemoteException {
+        IBinder first = new Binder();
+        IBinder second = new Binder();
+
+        update(first);
+        remove(first);
+        update(second);
+
+        assertEquals(1, HudStats.INSTANCE.getInflatedViewCount());
+    }
+
+    @Test
+    public void viewsKeepOrderHudsWereAddedIn() throws RemoteException {
+        IBinder first = new Binder();
+        IBinder second = new Binder();
+        IBinder third = new Binder();
+        IBinder text = new Binder();
+
+        updateText(text);
+        updateGraph(first, 10);
+        updateGraph(second, 20);
+        updateGraph(third, 30);
+        updateText(second);
+        updateGraph(second, 20);
+
+        ViewGroup root = defaultRegionRoot();
+        assertEquals(4, root.getChildCount());
+        assertGraph(root, 0, 10);
+        assertGraph(root, 1, 20);
+        assertGraph(root, 2, 30);
+        assertTrue(root.getChildAt(3) instanceof TextOverlayView);
+    }
+
+    @Test
+    public void startupEndsWhenOverlayIsDrawnWithHud() throws Exception {
+        HudStats.INSTANCE.startupStarted();
+        draw(defaultRegionRoot());
+        assertEquals(0, HudStats.INSTANCE.getStartupTime().getCount());
+
+        updateGraph(new Binder(), 10);
+        draw(defaultRegionRoot());
+        draw(defaultRegionRoot());
+        assertEquals(1, HudStats.INSTANCE.getStartupTime().getCount());
+    }
+
+    @Test
+    public void deadHudsAreRemovedInOneBatch() throws Exception {
+        final List<DyingToken> tokens = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            DyingToken token = new DyingToken();
+            tokens.add(token);
+
+            // Views and text in default region, graphs in another one
+            if (i % 3 == 0) {
+                update(token);
+            } else if (i % 3 == 1) {
+                updateText(token);
+            } else {
+                HudUpdate graph = HudUpdate.ofGraph(10, 0, 100, true, new float[]{50});
+                graph.setPlace(Gravity.BOTTOM, 0, 0);
+                service.update(token, graph, Const.NO_SEQUENCE, null);
+                ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+            }
+        }
+        assertEquals(2, HudStats.INSTANCE.getWindowCount());
+
+        ViewGroup root = defaultRegionRoot();
+        layOut(root);
+
+        Scheduler scheduler = Robolectric.getForegroundThreadScheduler();
+        scheduler.pause();
+        try {
+            Thread binderThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (DyingToken token : tokens) {
+                        token.recipient.binderDied();
+                    }
+                }
+            });
+            binderThread.start();
+            binderThread.join();
+
+            // All deaths are handled by single cleanup
+            assertEquals(1, scheduler.size());
+            scheduler.runOneTask();
+            assertTrue(((Queue<?>) field(handler(), "deadTokens")).isEmpty());
+            assertTrue(((Map<?, ?>) field(handler(), "remoteViews")).isEmpty());
+
+            // Window is laid out on next frame whenever it has been changed
+            int layoutCount = 0;
+            while (scheduler.runOneTask()) {
+                if (root.isLayoutRequested()) {
+                    layOut(root);
+                    layoutCount++;
+                }
+            }
+            assertEquals(1, layoutCount);
+        } finally {
+            scheduler.unPause();
+        }
+
+        assertEquals(0, root.getChildCount());
+        assertEquals(1, HudStats.INSTANCE.getWindowCount());
+    }
+
+    private static void draw(ViewGroup root) throws Exception {
+        // Robolectric draws views without dispatching draw to children
+        Method dispatchDraw = root.getClass().getDeclaredMethod("dispatchDraw", Canvas.class);
+        dispatchDraw.setAccessible(true);
+        dispatchDraw.invoke(root,
+                new Canvas(Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888)));
+    }
+
+    private ViewGroup defaultRegionRoot() {
+        WindowManager windowManager =
+                (WindowManager) controller.get().getSystemService(HudService.WINDOW_SERVICE);
+        ShadowWindowManagerImpl shadow =
+                (ShadowWindowManagerImpl) ShadowExtractor.extract(windowManager);
+        return (ViewGroup) shadow.getViews().get(0);
+    }
+
+    private static void assertGraph(ViewGroup root, int index, int capacity) {
+        GraphView graph = (GraphView) root.getChildAt(index);
+        assertTrue(graph.isConfiguredAs(capacity, 0, 100));
+    }
+
+    private static void layOut(ViewGroup root) {
+        root.measure(View.MeasureSpec.UNSPECIFIED, View.MeasureSpec.UNSPECIFIED);
+        root.layout(0, 0, root.getMeasuredWidth(), root.getMeasuredHeight());
+    }
+
+    private Object handler() throws ReflectiveOperationException {
+        return field(controller.get(), "hudHandler");
+    }
+
+    private static Object field(Object object, String name) throws ReflectiveOperationException {
+        Field field = object.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(object);
+    }
+
+    private void updateGraph(IBinder token, int capacity) throws RemoteException {
+        service.update(token, HudUpdate.ofGraph(capacity, 0, 100, true, new float[]{50}),
+                Const.NO_SEQUENCE, null);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+    }
+
+    private void updateText(IBinder token) throws RemoteException {
+        service.update(token, HudUpdate.ofText("text"), Const.NO_SEQUENCE, null);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+    }
+
+    private void update(IBinder token) throws RemoteException {
+        RemoteViews views = new RemoteViews(
+                RuntimeEnvironment.application.getPackageName(), R.layout.debug_text_hud);
+
+        service.update(token, HudUpdate.ofViews(views), Const.NO_SEQUENCE, null);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+    }
+
+    private void remove(IBinder token) throws RemoteException {
+        service.remove(token);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+    }
+
+    /**
+     * Token whose death can be reported to service at will.
+     */
+    private static class DyingToken extends Binder {
+
+        DeathRecipient recipient;
+
+        @Override
+        public void linkToDeath(DeathRecipient recipient, int flags) {
+            this.recipient = recipient;
+        }
+
+        @Override
+        public boolean unlinkToDeath(DeathRecipient recipient, int flags) {
+            this.recipient = null;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package net.vganin.hud;
+
+import android.widget.RemoteViews;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, shadows = ShadowRealRemoteViews.class)
+public class HudUpdateTest {
+
+    private static final String PACKAGE = "net.vganin.hud";
+    private static final int LAYOUT = 1;
+
+    /**
+     * Minimum ratio of remote views update size to size of equivalent slot update.
+     */
+    private static final int MIN_SIZE_RATIO = 4;
+
+    @Test
+    public void newerSlotValuesWin() {
+        HudUpdate older = slots(null, new int[]{1, 2}, new int[]{10, 20});
+        HudUpdate newer = slots(null, new int[]{2, 3}, new int[]{200, 300});
+
+        HudUpdate merged = newer.mergeWith(older);
+
+        assertEquals(3, merged.slotCount);
+        assertArrayEquals(new int[]{1, 2, 3}, merged.slotIds);
+        assertArrayEquals(new int[]{10, 200, 300}, merged.slotNumbers);
+    }
+
+    @Test
+    public void layoutOfOlderUpdateIsKept() {
+        HudUpdate older = slots(PACKAGE, new int[]{1}, new int[]{10});
+        HudUpdate newer = slots(null, new int[]{1}, new int[]{20});
+
+        HudUpdate merged = newer.mergeWith(older);
+
+        assertEquals(PACKAGE, merged.layoutPackage);
+        assertEquals(LAYOUT, merged.layoutId);
+    }
+
+    @Test
+    public void placeOfNewerUpdateIsKept() {
+        HudUpdate older = slots(null, new int[]{1}, new int[]{10});
+        HudUpdate newer = slots(null, new int[]{1}, new int[]{20});
+        newer.setPlace(5, 6, 7);
+
+        HudUpdate merged = newer.mergeWith(older);
+
+        assertEquals(5, merged.gravity);
+        assertEquals(6, merged.offsetX);
+        assertEquals(7, merged.offsetY);
+    }
+
+    @Test
+    public void samplesAreAppendedUpToCapacity() {
+        HudUpdate older = HudUpdate.ofGraph(4, 0, 1, false, new float[]{1, 2, 3});
+        HudUpdate newer = HudUpdate.ofGraph(4, 0, 1, false, new float[]{4, 5});
+
+        HudUpdate merged = newer.mergeWith(older);
+
+        assertArrayEquals(new float[]{2, 3, 4, 5}, merged.samples, 0);
+        assertFalse(merged.graphReset);
+    }
+
+    @Test
+    public void resetOfOlderUpdateIsKept() {
+        HudUpdate older = HudUpdate.ofGraph(4, 0, 1, true, new float[]{1});
+        HudUpdate newer = HudUpdate.ofGraph(4, 0, 1, false, new float[]{2});
+
+        HudUpdate merged = newer.mergeWith(older);
+
+        assertArrayEquals(new float[]{1, 2}, merged.samples, 0);
+        assertTrue(merged.graphReset);
+    }
+
+    @Test
+    public void resetDiscardsOlderSamples() {
+        HudUpdate older = HudUpdate.ofGraph(4, 0, 1, false, new float[]{1});
+        HudUpdate newer = HudUpdate.ofGraph(4, 0, 1, true, new float[]{2});
+
+        assertSame(newer, newer.mergeWith(older));
+    }
+
+    @Test
+    public void onlyDeltasOfSameKindAreMerged() {
+        HudUpdate slots = slots(null, new int[]{1}, new int[]{10});
+        HudUpdate graph = HudUpdate.ofGraph(4, 0, 1, false, new float[]{1});
+
+        assertTrue(slots.mustMergeWith(slots(null, new int[0], new int[0])));
+        assertFalse(slots.mustMergeWith(graph));
+        assertFalse(HudUpdate.ofText("text").mustMergeWith(HudUpdate.ofText("older")));
+    }
+
+    @Test
+    public void equalUpdatesHaveEqualFingerprints() {
+        assertEquals(HudUpdate.ofText("text").fingerprint(),
+                HudUpdate.ofText(new StringBuilder("text")).fingerprint());
+        assertEquals(slots(PACKAGE, new int[]{1}, new int[]{10}).fingerprint(),
+                slots(PACKAGE, new int[]{1}, new int[]{10}).fingerprint());
+    }
+
+    @Test
+    public void differentUpdatesHaveDifferentFingerprints() {
+        assertNotEquals(HudUpdate.ofText("text").fingerprint(),
+                HudUpdate.ofText("next").fingerprint());
+        assertNotEquals(slots(PACKAGE, new int[]{1}, new int[]{10}).fingerprint(),
+                slots(PACKAGE, new int[]{1}, new int[]{20}).fingerprint());
+        assertNotEquals(slots(PACKAGE, new int[]{1}, new int[]{10}).fingerprint(),
+                slots(null, new int[]{1}, new int[]{10}).fingerprint());
+
+        HudUpdate moved = HudUpdate.ofText("text");
+        moved.setPlace(5, 6, 7);
+        assertNotEquals(HudUpdate.ofText("text").fingerprint(), moved.fingerprint());
+    }
+
+    @Test
+    public void appendedSamplesHaveNoFingerprint() {
+        assertEquals(HudUpdate.NO_FINGERPRINT,
+                HudUpdate.ofGraph(4, 0, 1, false, new float[]{1}).fingerprint());
+        assertNotEquals(HudUpdate.NO_FINGERPRINT,
+                HudUpdate.ofGraph(4, 0, 1, true, new float[]{1}).fingerprint());
+    }
+
+    @Test
+    public void slotUpdateIsManyTimesSmallerThanRemoteViews() {
+        String packageName = RuntimeEnvironment.application.getPackageName();
+        RemoteViews views = new RemoteViews(packageName, R.layout.debug_text_hud);
+        views.setTextViewText(R.id.debug_text, "42");
+
+        // Layout is sent once, so that subsequent slot updates carry changed values only
+        HudUpdate slots = HudUpdate.ofSlots(null, R.layout.debug_text_hud, 1);
+        slots.slotIds[0] = R.id.debug_text;
+        slots.slotTypes[0] = HudUpdate.SLOT_TEXT;
+        slots.slotTexts[0] = "42";
+
+        int slotsSize = slots.parcel().dataSize();
+        int viewsSize = HudUpdate.ofViews(views).parcel().dataSize();
+        assertTrue(slotsSize + " bytes of slots, " + viewsSize + " bytes of views",
+                MIN_SIZE_RATIO * slotsSize <= viewsSize);
+    }
+
+    private static HudUpdate slots(String layoutPackage, int[] ids, int[] numbers) {
+        HudUpdate update = HudUpdate.ofSlots(layoutPackage, LAYOUT, ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            update.slotIds[i] = ids[i];
+            update.slotTypes[i] = HudUpdate.SLOT_INT;
+            update.slotNumbers[i] = numbers[i];
+        }
+        return update;
+    }
+}
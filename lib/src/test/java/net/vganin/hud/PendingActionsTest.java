@@ -0,0 +1,113 @@
+package net.vganin.hud;
+
+import android.widget.RemoteViews;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PendingActionsTest {
+
+    private final PendingActions pending = new PendingActions();
+
+    @Test
+    public void updatesOfSameHudAreCoalesced() {
+        Hud hud = new TestHud();
+
+        pending.addUpdate(hud, 100);
+        pending.addUpdate(hud, 100);
+        pending.addUpdate(hud, 100);
+
+        assertEquals(1, runUpdates().size());
+    }
+
+    @Test
+    public void soonerUpdateWins() {
+        Hud hud = new TestHud();
+
+        pending.addUpdate(hud, 100);
+        pending.addUpdate(hud, 0);
+        pending.addUpdate(hud, 50);
+
+        assertEquals(Long.valueOf(0), runUpdates().get(hud));
+    }
+
+    @Test
+    public void updatesOfDifferentHudsAreKept() {
+        Hud first = new TestHud();
+        Hud second = new TestHud();
+
+        pending.addUpdate(first, 0);
+        pending.addUpdate(second, 100);
+
+        Map<Hud, Long> updates = runUpdates();
+        assertEquals(Long.valueOf(0), updates.get(first));
+        assertEquals(Long.valueOf(100), updates.get(second));
+    }
+
+    @Test
+    public void updatesAreRunOnce() {
+        pending.addUpdate(new TestHud(), 0);
+
+        runUpdates();
+
+        assertTrue(runUpdates().isEmpty());
+    }
+
+    @Test
+    public void removedUpdateIsNotRun() {
+        Hud hud = new TestHud();
+
+        pending.addUpdate(hud, 0);
+        pending.removeUpdate(hud);
+
+        assertTrue(runUpdates().isEmpty());
+    }
+
+    @Test
+    public void togglesCancelOutInPairs() {
+        pending.addToggle();
+        pending.addToggle();
+        assertFalse(pending.takeToggle());
+
+        pending.addToggle();
+        assertTrue(pending.takeToggle());
+        assertFalse(pending.takeToggle());
+    }
+
+    @Test
+    public void clearForgetsAllActions() {
+        pending.addUpdate(new TestHud(), 0);
+        pending.addToggle();
+
+        pending.clear();
+
+        assertTrue(runUpdates().isEmpty());
+        assertFalse(pending.takeToggle());
+    }
+
+    private Map<Hud, Long> runUpdates() {
+        final Map<Hud, Long> updates = new LinkedHashMap<>();
+        pending.runUpdates(new PendingActions.Callback() {
+            @Override
+            public void onUpdate(Hud hud, long delay) {
+                assertFalse(updates.containsKey(hud));
+                updates.put(hud, delay);
+            }
+        });
+        return updates;
+    }
+
+    private static class TestHud extends Hud {
+
+        @Override
+        public RemoteViews getUpdate() {
+            return null;
+        }
+    }
+}
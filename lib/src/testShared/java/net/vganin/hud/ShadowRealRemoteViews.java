@@ -0,0 +1,32 @@
+package net.vganin.hud;
+
+import android.view.View;
+import android.widget.RemoteViews;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+
+import java.lang.reflect.Method;
+
+/**
+ * Lets remote views be applied and parceled by platform code instead of default shadow, which
+ * attaches inflated view to parent and cannot be parceled.
+ */
+@Implements(value = RemoteViews.class, callThroughByDefault = true)
+public class ShadowRealRemoteViews {
+
+    /**
+     * Finds method of action by signature only. Robolectric drops annotations platform code looks
+     * for, so no method could be called by action otherwise.
+     */
+    @Implementation
+    public Method getMethod(View view, String methodName, Class<?> paramType) {
+        try {
+            return paramType != null
+                    ? view.getClass().getMethod(methodName, paramType)
+                    : view.getClass().getMethod(methodName);
+        } catch (NoSuchMethodException e) {
+            throw new RemoteViews.ActionException(e);
+        }
+    }
+}